@@ -2,6 +2,8 @@ package com.nurkiewicz.webflux.demo;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.CacheControl;
@@ -13,6 +15,7 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -25,19 +28,81 @@ import static org.springframework.web.reactive.function.server.RequestPredicates
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 
 @Configuration
+@EnableConfigurationProperties(OutboundProperties.class)
 class Config {
 
     private static final Logger log = LoggerFactory.getLogger(Config.class);
 
+    private final OutboundProperties outbound;
+
+    Config(OutboundProperties outbound) {
+        this.outbound = outbound;
+    }
+
+    /**
+     * Feed polling, see {@link com.nurkiewicz.webflux.demo.feed.FeedReader}.
+     */
+    @Bean
+    @Qualifier("feeds")
+    WebClient feedsWebClient(DeadlineExchangeFilter deadline, RateLimitingFilter rateLimiter) {
+        return webClient("feeds", true, deadline, rateLimiter);
+    }
+
+    /**
+     * Calls proxied on behalf of our clients, see {@link ReactorController}.
+     * Compressed bodies are relayed untouched, so client's own <code>Accept-Encoding</code> is used instead.
+     */
     @Bean
-    WebClient webClient() {
+    @Qualifier("proxy")
+    WebClient proxyWebClient(DeadlineExchangeFilter deadline, RateLimitingFilter rateLimiter) {
+        return webClient("proxy", false, deadline, rateLimiter);
+    }
+
+    /**
+     * Long-lived SSE streams, see {@link com.nurkiewicz.webflux.demo.emojis.EmojiController}.
+     */
+    @Bean
+    @Qualifier("emojis")
+    WebClient emojisWebClient(DeadlineExchangeFilter deadline, RateLimitingFilter rateLimiter) {
+        return webClient("emojis", true, deadline, rateLimiter);
+    }
+
+    /**
+     * Every use case gets its own connection pool, so e.g. slow feeds can not starve proxy of connections.
+     * Pool settings are read from <code>outbound.pools.&lt;name&gt;.*</code>, see {@link OutboundProperties}.
+     * Deadline filter goes first, so time spent waiting for the rate limiter counts against the deadline.
+     */
+    private WebClient webClient(String name, boolean compress, DeadlineExchangeFilter deadline, RateLimitingFilter rateLimiter) {
+        OutboundProperties.Pool settings = outbound.pool(name);
+        ConnectionProvider pool = ConnectionProvider
+                .builder(name)
+                .maxConnections(settings.getMaxConnections())
+                .maxIdleTime(settings.getMaxIdleTime())
+                .evictInBackground(settings.getEvictionInterval())
+                .pendingAcquireMaxCount(settings.getPendingAcquireMax())
+                .pendingAcquireTimeout(settings.getPendingAcquireTimeout())
+                //reactor.netty.connection.provider.* gauges tagged with pool name
+                .metrics(true)
+                .build();
         return WebClient
                 .builder()
                 .codecs(codecs ->
                         codecs.defaultCodecs().maxInMemorySize(1024 * 1024 * 10))
+                .filter(deadline)
+                .filter(rateLimiter)
                //pozwalamy na redirecty
                 .clientConnector(new ReactorClientHttpConnector(
-                        HttpClient.create().followRedirect(true)
+                        HttpClient
+                                .create(pool)
+                                .followRedirect(true)
+                                //Accept-Encoding: gzip, body inflated chunk by chunk as it arrives
+                                .compress(compress)
+                                //bytes on the wire per remote address, URIs would explode tag cardinality
+                                .metrics(true, uri -> "/")
+                                //non-blocking resolver caching answers instead of a blocking JDK lookup per connection
+                                .resolver(dns -> dns
+                                        .cacheMaxTimeToLive(outbound.getDns().getCacheMaxTtl())
+                                        .cacheNegativeTimeToLive(outbound.getDns().getCacheNegativeTtl()))
                 ))
                 .build();
     }
@@ -0,0 +1,50 @@
+package com.nurkiewicz.webflux.demo;
+
+import java.time.Duration;
+
+import reactor.util.context.ContextView;
+
+/**
+ * Point in time after which nobody waits for the result of the current request.
+ * Stored in Reactor {@link reactor.util.context.Context} by {@link DeadlineWebFilter},
+ * applied to outbound calls by {@link DeadlineExchangeFilter}.
+ */
+public final class Deadline {
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static Deadline after(Duration timeout) {
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * @return {@link Duration#ZERO} once expired, never negative
+     */
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return remaining().isZero();
+    }
+
+    /**
+     * Earlier of the two.
+     */
+    Deadline min(Deadline other) {
+        return deadlineNanos - other.deadlineNanos <= 0 ? this : other;
+    }
+
+    static Deadline from(ContextView context) {
+        return context.getOrDefault(Deadline.class, null);
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{remaining=" + remaining() + '}';
+    }
+}
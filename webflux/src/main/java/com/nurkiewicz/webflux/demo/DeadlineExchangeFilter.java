@@ -0,0 +1,56 @@
+package com.nurkiewicz.webflux.demo;
+
+import java.util.concurrent.TimeoutException;
+
+import reactor.core.publisher.Mono;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+
+/**
+ * Applies time remaining until {@link Deadline} (if any in Reactor Context) as timeout of outbound call,
+ * both waiting for the response and reading its body. Calls after the deadline are not even started.
+ */
+@Component
+class DeadlineExchangeFilter implements ExchangeFilterFunction {
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.deferContextual(context -> {
+            Deadline deadline = Deadline.from(context);
+            if (deadline == null) {
+                return next.exchange(request);
+            }
+            if (deadline.isExpired()) {
+                return Mono.error(new DeadlineExceededException(request));
+            }
+            return next
+                    .exchange(request)
+                    .timeout(deadline.remaining())
+                    .map(response -> response
+                            .mutate()
+                            //every chunk waits at most until the same deadline, not a fresh timeout
+                            .body(body -> body
+                                    .timeout(
+                                            Mono.delay(deadline.remaining()),
+                                            chunk -> Mono.delay(deadline.remaining()))
+                                    .onErrorMap(TimeoutException.class, e -> new DeadlineExceededException(request)))
+                            .build())
+                    .onErrorMap(TimeoutException.class, e -> new DeadlineExceededException(request));
+        });
+    }
+
+    @ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+    static class DeadlineExceededException extends RuntimeException {
+
+        DeadlineExceededException(ClientRequest request) {
+            super("Deadline exceeded: " + request.method() + " " + request.url());
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.nurkiewicz.webflux.demo;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+/**
+ * Puts {@link Deadline} of the incoming request into Reactor Context.
+ * <p>
+ * Deadline comes from <code>X-Request-Timeout</code> header (e.g. <code>500ms</code>, <code>2s</code>)
+ * and/or from <code>deadline.routes</code>, mapping path patterns to timeouts. When both are present the shorter wins,
+ * so clients can only shorten the configured deadline. Requests with neither have no deadline.
+ * Malformed and non-positive headers are ignored, longer than <code>deadline.max-timeout</code> are cut down to it.
+ */
+@Component
+class DeadlineWebFilter implements WebFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(DeadlineWebFilter.class);
+
+    static final String HEADER = "X-Request-Timeout";
+
+    private final Map<PathPattern, Duration> routes = new LinkedHashMap<>();
+    private final Duration maxTimeout;
+
+    @Autowired
+    DeadlineWebFilter(Environment environment, @Value("${deadline.max-timeout:5m}") Duration maxTimeout) {
+        this(Binder
+                .get(environment)
+                .bind("deadline.routes", Bindable.mapOf(String.class, Duration.class))
+                .orElse(Map.of()), maxTimeout);
+    }
+
+    DeadlineWebFilter(Map<String, Duration> routes) {
+        this(routes, Duration.ofMinutes(5));
+    }
+
+    DeadlineWebFilter(Map<String, Duration> routes, Duration maxTimeout) {
+        this.maxTimeout = maxTimeout;
+        routes.forEach((pattern, timeout) -> this.routes.put(PathPatternParser.defaultInstance.parse(pattern), timeout));
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        Deadline deadline = deadline(exchange);
+        if (deadline == null) {
+            return chain.filter(exchange);
+        }
+        return chain
+                .filter(exchange)
+                .contextWrite(context -> context.put(Deadline.class, deadline));
+    }
+
+    private Deadline deadline(ServerWebExchange exchange) {
+        Deadline deadline = null;
+        for (Map.Entry<PathPattern, Duration> route : routes.entrySet()) {
+            if (route.getKey().matches(exchange.getRequest().getPath().pathWithinApplication())) {
+                deadline = Deadline.after(route.getValue());
+                break;
+            }
+        }
+        String header = exchange.getRequest().getHeaders().getFirst(HEADER);
+        if (header == null) {
+            return deadline;
+        }
+        try {
+            Duration timeout = DurationStyle.detectAndParse(header);
+            if (timeout.isNegative() || timeout.isZero()) {
+                log.debug("Ignoring non-positive {}: {}", HEADER, header);
+                return deadline;
+            }
+            Deadline requested = Deadline.after(timeout.compareTo(maxTimeout) > 0 ? maxTimeout : timeout);
+            return deadline == null ? requested : deadline.min(requested);
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            //ArithmeticException when the number overflows Duration
+            log.debug("Ignoring invalid {}: {}", HEADER, header);
+            return deadline;
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.nurkiewicz.webflux.demo;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * <code>outbound.pools.&lt;name&gt;.*</code> and <code>outbound.dns.*</code>, see {@link Config}.
+ * Pools missing from configuration get defaults.
+ */
+@ConfigurationProperties("outbound")
+public class OutboundProperties {
+
+    private final Map<String, Pool> pools = new HashMap<>();
+    private final Dns dns = new Dns();
+
+    public Map<String, Pool> getPools() {
+        return pools;
+    }
+
+    public Dns getDns() {
+        return dns;
+    }
+
+    Pool pool(String name) {
+        return pools.getOrDefault(name, new Pool());
+    }
+
+    public static class Pool {
+
+        private int maxConnections = 16;
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+        private Duration evictionInterval = Duration.ofSeconds(30);
+        private int pendingAcquireMax = 500;
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(30);
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public Duration getMaxIdleTime() {
+            return maxIdleTime;
+        }
+
+        public void setMaxIdleTime(Duration maxIdleTime) {
+            this.maxIdleTime = maxIdleTime;
+        }
+
+        public Duration getEvictionInterval() {
+            return evictionInterval;
+        }
+
+        public void setEvictionInterval(Duration evictionInterval) {
+            this.evictionInterval = evictionInterval;
+        }
+
+        public int getPendingAcquireMax() {
+            return pendingAcquireMax;
+        }
+
+        public void setPendingAcquireMax(int pendingAcquireMax) {
+            this.pendingAcquireMax = pendingAcquireMax;
+        }
+
+        public Duration getPendingAcquireTimeout() {
+            return pendingAcquireTimeout;
+        }
+
+        public void setPendingAcquireTimeout(Duration pendingAcquireTimeout) {
+            this.pendingAcquireTimeout = pendingAcquireTimeout;
+        }
+    }
+
+    public static class Dns {
+
+        private Duration cacheMaxTtl = Duration.ofMinutes(5);
+        private Duration cacheNegativeTtl = Duration.ofSeconds(30);
+
+        public Duration getCacheMaxTtl() {
+            return cacheMaxTtl;
+        }
+
+        public void setCacheMaxTtl(Duration cacheMaxTtl) {
+            this.cacheMaxTtl = cacheMaxTtl;
+        }
+
+        public Duration getCacheNegativeTtl() {
+            return cacheNegativeTtl;
+        }
+
+        public void setCacheNegativeTtl(Duration cacheNegativeTtl) {
+            this.cacheNegativeTtl = cacheNegativeTtl;
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.nurkiewicz.webflux.demo;
+
+import com.nurkiewicz.webflux.demo.RateLimitingFilter.RateLimitedException;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+/**
+ * Outbound call rejected by {@link RateLimitingFilter} is our overload, not a bug:
+ * client gets <code>503 Service Unavailable</code> with <code>Retry-After</code> (whole seconds, at least one) instead of <code>500</code>.
+ */
+@ControllerAdvice
+class RateLimitedHandler {
+
+    @ExceptionHandler(RateLimitedException.class)
+    ResponseEntity<Void> rateLimited(RateLimitedException e) {
+        long seconds = Math.max(1, (e.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(seconds))
+                .build();
+    }
+
+}
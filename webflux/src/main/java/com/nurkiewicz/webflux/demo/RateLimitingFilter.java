@@ -0,0 +1,78 @@
+package com.nurkiewicz.webflux.demo;
+
+import java.time.Duration;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+
+/**
+ * Global limit of outbound requests, shared by every {@link org.springframework.web.reactive.function.client.WebClient}.
+ * Requests over the limit are delayed (without blocking a thread), or fail with {@link RateLimitedException}
+ * if they would have to wait longer than <code>outbound.rate-limit.max-wait</code>.
+ * Calls made on behalf of our clients answer them with <code>503 Service Unavailable</code> then, see {@link RateLimitedHandler}.
+ */
+@Component
+class RateLimitingFilter implements ExchangeFilterFunction {
+
+    private final TokenBucket bucket;
+    private final long maxWaitNanos;
+    private final Counter delayed;
+    private final Counter rejected;
+
+    RateLimitingFilter(
+            MeterRegistry meterRegistry,
+            @Value("${outbound.rate-limit.permits-per-second:50}") double permitsPerSecond,
+            @Value("${outbound.rate-limit.burst:100}") int burst,
+            @Value("${outbound.rate-limit.max-wait:5s}") Duration maxWait) {
+        this.bucket = new TokenBucket(permitsPerSecond, burst, System.nanoTime());
+        this.maxWaitNanos = maxWait.toNanos();
+        this.delayed = meterRegistry.counter("outbound.rate-limit", "outcome", "delayed");
+        this.rejected = meterRegistry.counter("outbound.rate-limit", "outcome", "rejected");
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.defer(() -> {
+            long now = System.nanoTime();
+            long wait = bucket.reserve(now, maxWaitNanos);
+            if (wait == TokenBucket.REJECTED) {
+                rejected.increment();
+                Duration retryAfter = Duration.ofNanos(bucket.waitNanos(now) - maxWaitNanos);
+                return Mono.error(new RateLimitedException(request, retryAfter));
+            }
+            if (wait == 0) {
+                return next.exchange(request);
+            }
+            delayed.increment();
+            return Mono
+                    .delay(Duration.ofNanos(wait))
+                    .then(Mono.defer(() -> next.exchange(request)));
+        });
+    }
+
+    static class RateLimitedException extends RuntimeException {
+
+        private final Duration retryAfter;
+
+        RateLimitedException(ClientRequest request, Duration retryAfter) {
+            super("Outbound rate limit exceeded: " + request.method() + " " + request.url());
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * @return how long until the call would be delayed rather than rejected
+         */
+        Duration getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+}
@@ -1,17 +1,27 @@
 package com.nurkiewicz.webflux.demo;
 
 
+import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.reactive.function.client.WebClient;
@@ -25,10 +35,53 @@ class ReactorController {
 
 	private static final Logger log = LoggerFactory.getLogger(ReactorController.class);
 
+	/**
+	 * Connection-level headers, meaningful only between two adjacent hops.
+	 */
+	private static final Set<String> HOP_BY_HOP = Set.of(
+			HttpHeaders.CONNECTION.toLowerCase(),
+			"keep-alive",
+			HttpHeaders.PROXY_AUTHENTICATE.toLowerCase(),
+			HttpHeaders.PROXY_AUTHORIZATION.toLowerCase(),
+			HttpHeaders.TE.toLowerCase(),
+			HttpHeaders.TRAILER.toLowerCase(),
+			HttpHeaders.TRANSFER_ENCODING.toLowerCase(),
+			HttpHeaders.UPGRADE.toLowerCase(),
+			HttpHeaders.HOST.toLowerCase(),
+			HttpHeaders.CONTENT_LENGTH.toLowerCase());
+
+	/**
+	 * Only these request headers reach the upstream, never credentials or session cookie of our users.
+	 */
+	private static final Set<String> REQUEST_ALLOWED = Set.of(
+			HttpHeaders.ACCEPT.toLowerCase(),
+			HttpHeaders.ACCEPT_CHARSET.toLowerCase(),
+			HttpHeaders.ACCEPT_ENCODING.toLowerCase(),
+			HttpHeaders.ACCEPT_LANGUAGE.toLowerCase(),
+			HttpHeaders.IF_MATCH.toLowerCase(),
+			HttpHeaders.IF_MODIFIED_SINCE.toLowerCase(),
+			HttpHeaders.IF_NONE_MATCH.toLowerCase(),
+			HttpHeaders.IF_RANGE.toLowerCase(),
+			HttpHeaders.IF_UNMODIFIED_SINCE.toLowerCase(),
+			HttpHeaders.RANGE.toLowerCase(),
+			HttpHeaders.USER_AGENT.toLowerCase());
+
+	/**
+	 * Response headers of the upstream that must not be applied to our origin.
+	 */
+	private static final Set<String> RESPONSE_DENIED = Set.of(
+			HttpHeaders.SET_COOKIE.toLowerCase(),
+			"set-cookie2",
+			HttpHeaders.WWW_AUTHENTICATE.toLowerCase(),
+			HttpHeaders.AUTHORIZATION.toLowerCase(),
+			HttpHeaders.COOKIE.toLowerCase());
+
 	private final WebClient webClient;
+	private final URI proxyUpstream;
 
-	ReactorController(WebClient webClient) {
+	ReactorController(@Qualifier("proxy") WebClient webClient, @Value("${proxy.upstream:http://example.com}") URI proxyUpstream) {
 		this.webClient = webClient;
+		this.proxyUpstream = proxyUpstream;
 	}
 
 	@GetMapping("/hello")
@@ -88,13 +141,50 @@ class ReactorController {
 				);
 	}
 
+	/**
+	 * Streams upstream body to the client as it arrives, buffer by buffer, without decoding or aggregating it.
+	 * Next buffer is read from upstream only when the previous one was written, so memory per request is constant.
+	 * Body is relayed as is (also compressed), together with status and end-to-end headers.
+	 * Upstream is a third party: only content negotiation, conditional and range request headers are sent to it,
+	 * cookies and authentication headers it returns are dropped.
+	 */
 	@GetMapping("/proxy")
-	Mono<String> exampleProxy() {
+	Mono<Void> exampleProxy(ServerHttpRequest request, ServerHttpResponse response) {
 		return webClient
 				.get()
-				.uri("http://example.com")
-				.retrieve()
-				.bodyToMono(String.class);
+				.uri(proxyUpstream)
+				.headers(headers -> copyEndToEnd(request.getHeaders(), headers, REQUEST_ALLOWED::contains))
+				.exchangeToMono(upstream -> {
+					response.setStatusCode(upstream.statusCode());
+					copyEndToEnd(upstream.headers().asHttpHeaders(), response.getHeaders(), name -> !RESPONSE_DENIED.contains(name));
+					upstream.headers().contentLength().ifPresent(response.getHeaders()::setContentLength);
+					return response.writeWith(upstream.bodyToFlux(DataBuffer.class));
+				});
+	}
+
+	/**
+	 * Headers already present in <code>to</code> (e.g. written by security or CORS filters) are replaced, not duplicated.
+	 */
+	private static void copyEndToEnd(HttpHeaders from, HttpHeaders to, Predicate<String> allowed) {
+		Set<String> connectionScoped = connectionScoped(from);
+		from.forEach((name, values) -> {
+			String lowerCase = name.toLowerCase();
+			if (!HOP_BY_HOP.contains(lowerCase) && !connectionScoped.contains(lowerCase) && !lowerCase.startsWith("proxy-") && allowed.test(lowerCase)) {
+				to.put(name, values);
+			}
+		});
+	}
+
+	/**
+	 * Headers listed in <code>Connection</code> are hop-by-hop as well (RFC 7230, section 6.1).
+	 */
+	private static Set<String> connectionScoped(HttpHeaders headers) {
+		return headers
+				.getConnection()
+				.stream()
+				.map(String::trim)
+				.map(String::toLowerCase)
+				.collect(Collectors.toSet());
 	}
 
 	@GetMapping("/leak")
@@ -0,0 +1,54 @@
+package com.nurkiewicz.webflux.demo;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket refilled with <code>permitsPerSecond</code>, holding at most <code>burst</code> tokens.
+ * <p>
+ * Instead of blocking, {@link #reserve(long, long)} takes a token in advance and tells how long the caller
+ * has to wait for it, so callers can delay asynchronously.
+ */
+class TokenBucket {
+
+    static final long REJECTED = -1;
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double permitsPerSecond, int burst, long nowNanos) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = nowNanos;
+    }
+
+    /**
+     * @return nanoseconds to wait before using the reserved token, or {@link #REJECTED} if it would take longer than
+     * <code>maxWaitNanos</code> (nothing is reserved then)
+     */
+    synchronized long reserve(long nowNanos, long maxWaitNanos) {
+        long wait = waitNanos(nowNanos);
+        if (wait > maxWaitNanos) {
+            return REJECTED;
+        }
+        tokens -= 1;
+        return wait;
+    }
+
+    /**
+     * @return nanoseconds a token taken now would have to wait for, nothing is reserved
+     */
+    synchronized long waitNanos(long nowNanos) {
+        if (nowNanos > lastRefill) {
+            tokens = Math.min(burst, tokens + (nowNanos - lastRefill) * permitsPerSecond / NANOS_PER_SECOND);
+            lastRefill = nowNanos;
+        }
+        double remaining = tokens - 1;
+        return remaining >= 0 ? 0 : (long) Math.ceil(-remaining * NANOS_PER_SECOND / permitsPerSecond);
+    }
+
+}
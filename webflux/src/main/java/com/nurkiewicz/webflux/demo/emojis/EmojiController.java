@@ -1,5 +1,6 @@
 package com.nurkiewicz.webflux.demo.emojis;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.codec.ServerSentEvent;
@@ -25,7 +26,7 @@ public class EmojiController {
     private final URI emojiTrackerUrl;
     private final WebClient webClient;
 
-    public EmojiController(@Value("${emoji-tracker.url}") URI emojiTrackerUrl, WebClient webClient) {
+    public EmojiController(@Value("${emoji-tracker.url}") URI emojiTrackerUrl, @Qualifier("emojis") WebClient webClient) {
         this.emojiTrackerUrl = emojiTrackerUrl;
         this.webClient = webClient;
     }
@@ -1,6 +1,7 @@
 package com.nurkiewicz.webflux.demo.feed;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
 
 import java.net.URI;
 import java.time.Instant;
@@ -13,10 +14,21 @@ public class Article {
     private final Instant publishedDate;
     private final String title;
 
+    /**
+     * {@link ContentHash} of title and content, content itself is not stored.
+     */
+    private final long contentHash;
+
     public Article(URI link, Instant publishedDate, String title) {
+        this(link, publishedDate, title, ContentHash.of(title, null));
+    }
+
+    @PersistenceConstructor
+    public Article(URI link, Instant publishedDate, String title, long contentHash) {
         this.link = link;
         this.publishedDate = publishedDate;
         this.title = title;
+        this.contentHash = contentHash;
     }
 
     public URI getLink() {
@@ -31,6 +43,10 @@ public class Article {
         return title;
     }
 
+    public long getContentHash() {
+        return contentHash;
+    }
+
     @Override
     public String toString() {
         return "Article{" +
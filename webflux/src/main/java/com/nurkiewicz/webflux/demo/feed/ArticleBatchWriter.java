@@ -0,0 +1,159 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Collects articles coming from ingestion and stores them in batches.
+ * A batch is closed after <code>feed.batch.size</code> articles or <code>feed.batch.max-wait</code>,
+ * whichever comes first, and written as a single unordered bulk upsert keyed by link.
+ * Articles that were actually inserted (not just updated) are appended to {@link NewArticlesLog}.
+ * When Mongo falls behind, up to <code>feed.batch.max-pending</code> batches wait for it, then the oldest ones are dropped
+ * (ingestion fetches them again on the next poll).
+ */
+@Component
+public class ArticleBatchWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(ArticleBatchWriter.class);
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final NewArticlesLog newArticlesLog;
+    private final int batchSize;
+    private final Duration maxWait;
+    private final WriteConcern writeConcern;
+    private final int maxPendingBatches;
+    private final Sinks.Many<Article> incoming = Sinks.many().unicast().onBackpressureBuffer();
+    private final Sinks.Many<List<Article>> stored = Sinks.many().multicast().directBestEffort();
+
+    public ArticleBatchWriter(
+            ReactiveMongoTemplate mongoTemplate,
+            NewArticlesLog newArticlesLog,
+            @Value("${feed.batch.size:500}") int batchSize,
+            @Value("${feed.batch.max-wait:200ms}") Duration maxWait,
+            @Value("${feed.batch.write-concern:W1}") String writeConcern,
+            @Value("${feed.batch.max-pending:1000}") int maxPendingBatches) {
+        this.mongoTemplate = mongoTemplate;
+        this.newArticlesLog = newArticlesLog;
+        this.batchSize = batchSize;
+        this.maxWait = maxWait;
+        this.writeConcern = WriteConcern.valueOf(writeConcern);
+        this.maxPendingBatches = maxPendingBatches;
+    }
+
+    ArticleBatchWriter(ReactiveMongoTemplate mongoTemplate, NewArticlesLog newArticlesLog, int batchSize, Duration maxWait, String writeConcern) {
+        this(mongoTemplate, newArticlesLog, batchSize, maxWait, writeConcern, 1000);
+    }
+
+    @PostConstruct
+    public void start() {
+        incoming
+                .asFlux()
+                .bufferTimeout(batchSize, maxWait)
+                //bufferTimeout() ignores demand, without this buffer slow Mongo would terminate the whole pipeline with overflow
+                .onBackpressureBuffer(
+                        maxPendingBatches,
+                        dropped -> log.warn("Too many batches waiting, dropping oldest batch of {}", dropped.size()),
+                        BufferOverflowStrategy.DROP_OLDEST)
+                //one bulk write at a time, following batches wait in the buffer
+                .concatMap(this::write)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        //completing lets the last, partial batch flush
+        incoming.tryEmitComplete();
+    }
+
+    /**
+     * Enqueues article for the next batch. Safe to call from many threads at once.
+     */
+    public void save(Article article) {
+        //ingestion emits from many threads, retry instead of dropping the article
+        incoming.emitNext(article, (signal, result) -> result == Sinks.EmitResult.FAIL_NON_SERIALIZED);
+    }
+
+    /**
+     * Batches right after they were written, for monitoring. Subscribers not keeping up miss batches.
+     */
+    public Flux<List<Article>> stored() {
+        return stored.asFlux();
+    }
+
+    Mono<BulkWriteResult> write(List<Article> batch) {
+        List<Article> unique = latestByLink(batch);
+        List<ReplaceOneModel<Document>> upserts = unique
+                .stream()
+                .map(this::toUpsert)
+                .collect(Collectors.toList());
+        return mongoTemplate
+                .getCollection(mongoTemplate.getCollectionName(Article.class))
+                .flatMap(collection -> Mono.from(collection
+                        .withWriteConcern(writeConcern)
+                        .bulkWrite(upserts, new BulkWriteOptions().ordered(false))))
+                .doOnNext(result -> log.debug("Stored batch of {}", upserts.size()))
+                .doOnNext(result -> stored.tryEmitNext(unique))
+                .flatMap(result -> newArticlesLog
+                        .append(inserted(unique, result))
+                        .thenReturn(result))
+                .doOnError(e -> log.warn("Failed to store batch of {}: {}", upserts.size(), e.toString()))
+                .onErrorResume(e -> Mono.empty());
+    }
+
+    private static List<Article> latestByLink(List<Article> batch) {
+        //same link may appear twice in one batch, last version wins
+        Map<URI, Article> latest = new LinkedHashMap<>();
+        batch.forEach(article -> latest.put(article.getLink(), article));
+        return new ArrayList<>(latest.values());
+    }
+
+    private ReplaceOneModel<Document> toUpsert(Article article) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(article, document);
+        return new ReplaceOneModel<>(
+                Filters.eq("_id", document.get("_id")),
+                document,
+                new ReplaceOptions().upsert(true));
+    }
+
+    /**
+     * Upserts that did not match an existing link are new articles.
+     * Unacknowledged writes (<code>W0</code>) do not report them.
+     */
+    private static List<Article> inserted(List<Article> unique, BulkWriteResult result) {
+        if (!result.wasAcknowledged()) {
+            return List.of();
+        }
+        return result
+                .getUpserts()
+                .stream()
+                .map(upsert -> unique.get(upsert.getIndex()))
+                .collect(Collectors.toList());
+    }
+
+}
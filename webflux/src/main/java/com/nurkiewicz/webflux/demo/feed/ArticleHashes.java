@@ -0,0 +1,106 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.util.List;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link Article#getContentHash()} of every stored article, by link.
+ * <p>
+ * Polling a feed returns mostly the same articles again. Comparing hashes in memory
+ * lets ingestion skip them, so only new and edited articles reach {@link ArticleBatchWriter}.
+ * Hashes are recorded once a batch is actually written, a failed write is retried on the next poll.
+ * <p>
+ * At most <code>feed.hashes.max-size</code> hashes are kept, enough for every article a single round of polls returns.
+ * Articles that dropped out of feeds are evicted first. An evicted article still in a feed is merely written again,
+ * the upsert keyed by link makes that harmless.
+ */
+@Component
+public class ArticleHashes {
+
+    private static final Logger log = LoggerFactory.getLogger(ArticleHashes.class);
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final ArticleBatchWriter articleBatchWriter;
+    private final int maxSize;
+    private final Cache<URI, Long> hashes;
+    private final Disposable.Composite subscriptions = Disposables.composite();
+
+    public ArticleHashes(
+            ReactiveMongoTemplate mongoTemplate,
+            ArticleBatchWriter articleBatchWriter,
+            @Value("${feed.hashes.max-size:100000}") int maxSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.articleBatchWriter = articleBatchWriter;
+        this.maxSize = maxSize;
+        this.hashes = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    @PostConstruct
+    public void init() {
+        subscriptions.add(articleBatchWriter
+                .stored()
+                .subscribe(this::record));
+        subscriptions.add(warmUp());
+    }
+
+    @PreDestroy
+    public void close() {
+        subscriptions.dispose();
+    }
+
+    /**
+     * Only <code>_id</code> and <code>contentHash</code> of the newest articles are fetched, older ones are unlikely to be polled again.
+     */
+    private Disposable warmUp() {
+        Query query = new Query()
+                .with(Sort.by(Sort.Direction.DESC, "publishedDate"))
+                .limit(maxSize);
+        query.fields().include("_id").include("contentHash");
+        return mongoTemplate
+                .find(query, Document.class, mongoTemplate.getCollectionName(Article.class))
+                //written after warm-up started, newer than what we read
+                .doOnNext(document -> hashes.asMap().putIfAbsent(
+                        URI.create(document.getString("_id")),
+                        document.get("contentHash", 0L)))
+                .count()
+                .subscribe(
+                        count -> log.info("Loaded hashes of {} stored articles", count),
+                        e -> log.warn("Unable to load article hashes: {}", e.toString()));
+    }
+
+    /**
+     * @return <code>true</code> if article was never stored or its title or content changed since
+     */
+    public boolean changed(Article article) {
+        Long stored = hashes.getIfPresent(article.getLink());
+        return stored == null || stored != article.getContentHash();
+    }
+
+    void record(List<Article> batch) {
+        batch.forEach(article -> hashes.put(article.getLink(), article.getContentHash()));
+    }
+
+    long size() {
+        hashes.cleanUp();
+        return hashes.estimatedSize();
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import javax.annotation.PostConstruct;
+import java.net.URI;
+import java.time.Instant;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.CompoundIndexDefinition;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+/**
+ * All stored articles, newest first, in the same order as {@link NewestArticles#NEWEST_FIRST}.
+ * <p>
+ * Pages are addressed by the last article of the previous page (keyset pagination), not by offset.
+ * Every page is a range scan over <code>{publishedDate: -1, _id: 1}</code> index starting right after that article,
+ * so the 1000th page costs as much as the first one.
+ */
+@Repository
+public class ArticleHistory {
+
+    private static final Logger log = LoggerFactory.getLogger(ArticleHistory.class);
+
+    private static final Sort NEWEST_FIRST = Sort
+            .by(Sort.Direction.DESC, "publishedDate")
+            .and(Sort.by(Sort.Direction.ASC, "_id"));
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    public ArticleHistory(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @PostConstruct
+    public void init() {
+        ensureIndex().subscribe(
+                name -> log.info("Ensured history index {}", name),
+                e -> log.warn("Unable to create history index: {}", e.toString()));
+    }
+
+    Mono<String> ensureIndex() {
+        return mongoTemplate
+                .indexOps(Article.class)
+                .ensureIndex(new CompoundIndexDefinition(new Document("publishedDate", -1).append("_id", 1)));
+    }
+
+    /**
+     * @param publishedDate and <code>link</code> of the last article already seen, both <code>null</code> for the first page
+     */
+    public Flux<Article> after(Instant publishedDate, URI link, int limit) {
+        return mongoTemplate.find(query(publishedDate, link, limit), Article.class);
+    }
+
+    static Query query(Instant publishedDate, URI link, int limit) {
+        Query query = new Query().with(NEWEST_FIRST).limit(limit);
+        if (publishedDate == null) {
+            return query;
+        }
+        if (link == null) {
+            return query.addCriteria(Criteria.where("publishedDate").lt(publishedDate));
+        }
+        //first condition gives index bounds, second one skips articles on the boundary already seen
+        return query.addCriteria(Criteria.where("publishedDate").lte(publishedDate).orOperator(
+                Criteria.where("publishedDate").lt(publishedDate),
+                Criteria.where("_id").gt(link.toString())));
+    }
+
+}
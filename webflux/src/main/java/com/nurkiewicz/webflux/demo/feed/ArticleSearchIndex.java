@@ -0,0 +1,245 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import javax.annotation.PostConstruct;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * In-process inverted index over article titles.
+ * <p>
+ * Every article gets a sequential document id. Posting lists hold these ids delta- and varint-encoded
+ * in a <code>byte[]</code>, so a posting is usually a single byte. Replacing an article
+ * (same link, new title) marks the old document as deleted and indexes it again under a new id.
+ */
+@Component
+public class ArticleSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ArticleSearchIndex.class);
+
+    private static final ThreadLocal<Scores> SCORES = ThreadLocal.withInitial(Scores::new);
+
+    private final ArticleRepository articleRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Article> documents = new ArrayList<>();
+    private int[] lengths = new int[1024];
+    private final BitSet deleted = new BitSet();
+    private final Map<URI, Integer> idByLink = new HashMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private long totalLength;
+
+    public ArticleSearchIndex(ArticleRepository articleRepository) {
+        this.articleRepository = articleRepository;
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        articleRepository
+                .findAll()
+                .doOnNext(this::add)
+                .count()
+                .subscribe(
+                        count -> log.info("Indexed {} stored articles", count),
+                        e -> log.warn("Unable to index stored articles: {}", e.toString()));
+    }
+
+    public void add(Article article) {
+        if (article.getTitle() == null) {
+            return;
+        }
+        List<String> terms = tokenize(article.getTitle());
+        lock.writeLock().lock();
+        try {
+            Integer previous = idByLink.get(article.getLink());
+            if (previous != null) {
+                if (Objects.equals(documents.get(previous).getTitle(), article.getTitle())) {
+                    documents.set(previous, article);
+                    return;
+                }
+                deleted.set(previous);
+                totalLength -= lengths[previous];
+            }
+            int id = documents.size();
+            documents.add(article);
+            if (id == lengths.length) {
+                lengths = Arrays.copyOf(lengths, id * 2);
+            }
+            lengths[id] = terms.size();
+            totalLength += terms.size();
+            idByLink.put(article.getLink(), id);
+            for (String term : new LinkedHashSet<>(terms)) {
+                postings.computeIfAbsent(term, t -> new Postings()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Articles matching any of the query terms, best first.
+     * Score of a term is its inverse document frequency, damped for long titles.
+     */
+    public List<Article> search(String query, int limit) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            int live = idByLink.size();
+            double averageLength = live == 0 ? 1 : (double) totalLength / live;
+            Scores scores = SCORES.get().reset(documents.size());
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (list == null) {
+                    continue;
+                }
+                //postings of deleted documents are still counted, never go above live documents
+                int frequency = Math.min(list.size(), live);
+                double idf = Math.log(1 + (live - frequency + 0.5) / (frequency + 0.5));
+                list.forEach(id -> {
+                    if (!deleted.get(id)) {
+                        scores.add(id, idf / (0.25 + 0.75 * lengths[id] / averageLength));
+                    }
+                });
+            }
+            return top(scores, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Article> top(Scores scores, int limit) {
+        //min-heap of document ids, newer document wins a tie, never larger than the number of matches
+        PriorityQueue<Integer> best = new PriorityQueue<>(Math.min(limit, scores.touchedCount) + 1, Comparator
+                .<Integer>comparingDouble(id -> scores.values[id])
+                .thenComparingInt(id -> id));
+        for (int i = 0; i < scores.touchedCount; i++) {
+            best.add(scores.touched[i]);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        Article[] result = new Article[best.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = documents.get(best.poll());
+        }
+        return Arrays.asList(result);
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                if (i - start > 1) {
+                    tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Reusable score accumulator, avoids boxing and hashing on every query.
+     */
+    private static class Scores {
+
+        private double[] values = new double[0];
+        private int[] touched = new int[0];
+        private int touchedCount;
+
+        Scores reset(int documents) {
+            if (values.length < documents) {
+                values = new double[documents];
+                touched = new int[documents];
+            } else {
+                for (int i = 0; i < touchedCount; i++) {
+                    values[touched[i]] = 0;
+                }
+            }
+            touchedCount = 0;
+            return this;
+        }
+
+        void add(int id, double score) {
+            if (values[id] == 0) {
+                touched[touchedCount++] = id;
+            }
+            values[id] += score;
+        }
+
+    }
+
+    /**
+     * Ascending document ids, each stored as a varint-encoded gap from the previous one.
+     */
+    static class Postings {
+
+        private byte[] bytes = new byte[4];
+        private int length;
+        private int size;
+        private int last = -1;
+
+        void add(int id) {
+            int gap = id - last;
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((gap & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            bytes[length++] = (byte) gap;
+            last = id;
+            size++;
+        }
+
+        void forEach(IntConsumer consumer) {
+            int id = -1;
+            int position = 0;
+            while (position < length) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                id += gap;
+                consumer.accept(id);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+    }
+
+}
@@ -1,12 +1,18 @@
 package com.nurkiewicz.webflux.demo.feed;
 
+import java.net.URI;
+import java.time.Instant;
+
 import reactor.core.publisher.Flux;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
 import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
 
 @RestController
@@ -14,17 +20,55 @@ import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
 public class ArticlesController {
 
     private final ArticlesStream articlesStream;
+    private final NewestArticles newestArticles;
+    private final ArticleSearchIndex searchIndex;
+    private final ArticleHistory articleHistory;
+    private final int maxPageSize;
+    private final int maxSearchLimit;
 
-    public ArticlesController(ArticlesStream articlesStream) {
+    public ArticlesController(
+            ArticlesStream articlesStream,
+            NewestArticles newestArticles,
+            ArticleSearchIndex searchIndex,
+            ArticleHistory articleHistory,
+            @Value("${feed.history.max-page-size:1000}") int maxPageSize,
+            @Value("${feed.search.max-limit:100}") int maxSearchLimit) {
         this.articlesStream = articlesStream;
+        this.newestArticles = newestArticles;
+        this.searchIndex = searchIndex;
+        this.articleHistory = articleHistory;
+        this.maxPageSize = maxPageSize;
+        this.maxSearchLimit = maxSearchLimit;
     }
 
     /**
      * TODO (6) Return newest articles
+     *
+     * Served from memory, see {@link NewestArticles}.
      */
     @GetMapping("/newest/{limit}")
     Flux<Article> newest(@PathVariable int limit) {
-        return Flux.empty();
+        return Flux.fromIterable(newestArticles.newest(limit));
+    }
+
+    /**
+     * Articles with titles matching <code>q</code>, best matches first, at most <code>feed.search.max-limit</code> of them.
+     */
+    @GetMapping("/search")
+    Flux<Article> search(@RequestParam String q, @RequestParam(defaultValue = "10", required = false) int limit) {
+        return Flux.fromIterable(searchIndex.search(q, Math.max(0, Math.min(limit, maxSearchLimit))));
+    }
+
+    /**
+     * Older articles, one JSON per line, streamed from Mongo cursor as fast as the client reads.
+     * Pass <code>publishedDate</code> and <code>link</code> of the last received article to get the next page.
+     */
+    @GetMapping(value = "/history", produces = APPLICATION_NDJSON_VALUE)
+    Flux<Article> history(
+            @RequestParam(required = false) Instant publishedDate,
+            @RequestParam(required = false) URI link,
+            @RequestParam(defaultValue = "100", required = false) int limit) {
+        return articleHistory.after(publishedDate, link, Math.max(1, Math.min(limit, maxPageSize)));
     }
 
     /**
@@ -32,7 +76,7 @@ public class ArticlesController {
      */
     @GetMapping(value = "/newest-stream", produces = TEXT_EVENT_STREAM_VALUE)
     Flux<Article> streamNew() {
-        return Flux.empty();
+        return articlesStream.newArticles();
     }
 
 }
@@ -1,26 +1,32 @@
 package com.nurkiewicz.webflux.demo.feed;
 
+import java.time.Duration;
+
 import reactor.core.publisher.Flux;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
 public class ArticlesStream {
 
-    private final ArticleRepository articleRepository;
-    private final FeedAggregator feedAggregator;
+    private final Flux<Article> newArticles;
 
-    public ArticlesStream(ArticleRepository articleRepository, FeedAggregator feedAggregator) {
-        this.articleRepository = articleRepository;
-        this.feedAggregator = feedAggregator;
+    public ArticlesStream(NewArticlesLog newArticlesLog, @Value("${feed.new-articles.replay:10}") int replay) {
+        this.newArticles = newArticlesLog
+                .tail()
+                //single cursor for all subscribers, late joiners get last few articles
+                .replay(replay)
+                .refCount(1, Duration.ofSeconds(30));
     }
 
     /**
      * TODO (7) Create an infinite stream of new articles
-     * @return
+     *
+     * Hot stream shared by all subscribers, database load does not depend on their number.
      */
     Flux<Article> newArticles() {
-        return Flux.empty();
+        return newArticles;
     }
 
 }
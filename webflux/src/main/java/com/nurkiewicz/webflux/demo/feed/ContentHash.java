@@ -0,0 +1,53 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.text.Normalizer;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * 64-bit fingerprint of article title and content.
+ * Text is normalized first, so changes in whitespace or Unicode composition do not count as edits.
+ */
+final class ContentHash {
+
+    private static final HashFunction FINGERPRINT = Hashing.farmHashFingerprint64();
+
+    private ContentHash() {
+    }
+
+    static long of(String title, String content) {
+        Hasher hasher = FINGERPRINT.newHasher();
+        hasher.putString(normalize(title), UTF_8);
+        //separator, so that moving text between title and content changes the hash
+        hasher.putByte((byte) 0);
+        hasher.putString(normalize(content), UTF_8);
+        return hasher.hash().asLong();
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String composed = Normalizer.normalize(text, Normalizer.Form.NFC);
+        StringBuilder normalized = new StringBuilder(composed.length());
+        boolean space = false;
+        for (int i = 0; i < composed.length(); i++) {
+            char c = composed.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+
+}
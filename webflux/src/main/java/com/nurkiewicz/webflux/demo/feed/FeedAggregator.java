@@ -1,14 +1,27 @@
 package com.nurkiewicz.webflux.demo.feed;
 
 import javax.annotation.PostConstruct;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.IOException;
+import javax.annotation.PreDestroy;
+import java.net.URI;
 import java.net.URL;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
-import com.rometools.rome.io.FeedException;
+import com.rometools.opml.feed.opml.Outline;
+import com.rometools.rome.feed.synd.SyndContent;
+import com.rometools.rome.feed.synd.SyndEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
 
 import org.springframework.stereotype.Component;
 
@@ -19,24 +32,130 @@ public class FeedAggregator {
 
     private final OpmlReader opmlReader;
     private final FeedReader feedReader;
+    private final ArticleBatchWriter articleBatchWriter;
+    private final NewestArticles newestArticles;
+    private final ArticleSearchIndex searchIndex;
+    private final FeedScheduler feedScheduler;
+    private final ArticleHashes articleHashes;
+    /**
+     * By feed URL, when each of its undated entries was first seen. Only entries still in the feed are kept.
+     */
+    private final Map<String, Map<URI, Instant>> firstSeen = new ConcurrentHashMap<>();
+
+    private Disposable feedChanges;
+    private Disposable polling;
 
-    public FeedAggregator(OpmlReader opmlReader, FeedReader feedReader) {
+    public FeedAggregator(
+            OpmlReader opmlReader,
+            FeedReader feedReader,
+            ArticleBatchWriter articleBatchWriter,
+            NewestArticles newestArticles,
+            ArticleSearchIndex searchIndex,
+            FeedScheduler feedScheduler,
+            ArticleHashes articleHashes) {
         this.opmlReader = opmlReader;
         this.feedReader = feedReader;
+        this.articleBatchWriter = articleBatchWriter;
+        this.newestArticles = newestArticles;
+        this.searchIndex = searchIndex;
+        this.feedScheduler = feedScheduler;
+        this.articleHashes = articleHashes;
     }
 
     /**
      * TODO (4) Read all feeds and store them into database
      * TODO (5) Repeat periodically, do not store duplicates
      *
-     *
+     * Articles are not saved one by one, they go to {@link ArticleBatchWriter} which upserts them by link.
+     * Each feed is polled by {@link FeedScheduler} as often as it publishes.
+     * Articles already stored with the same {@link ContentHash} are skipped, see {@link ArticleHashes}.
      */
     @PostConstruct
-    public void init() throws IOException, FeedException, SAXException, ParserConfigurationException {
-       /* opmlReader.allFeedsStream()
-        feedReader.fetch(new URL(feed)).forEach(e -> {
-            log.info("{}: {} at {}", e.getPublishedDate(), e.getTitle(), e.getLink());
-        });*/
+    public void init() {
+        polling = feedScheduler
+                .start(this::fetchArticles)
+                .subscribe(this::ingest, e -> log.error("Stopped polling feeds", e));
+        feedChanges = opmlReader
+                .changes()
+                .subscribe(this::apply, e -> log.error("Stopped watching feeds", e));
+    }
+
+    @PreDestroy
+    public void close() {
+        feedChanges.dispose();
+        polling.dispose();
+    }
+
+    private void apply(FeedChange change) {
+        if (change.getType() == FeedChange.Type.ADDED) {
+            feedScheduler.add(change.getOutline());
+        } else {
+            feedScheduler.remove(change.getOutline());
+            firstSeen.remove(change.getOutline().getXmlUrl());
+        }
+    }
+
+    private void ingest(Article article) {
+        if (!articleHashes.changed(article)) {
+            return;
+        }
+        newestArticles.add(article);
+        searchIndex.add(article);
+        articleBatchWriter.save(article);
+    }
+
+    /**
+     * Undated entries are dated when first seen, all entries new in this poll with the same instant.
+     * Otherwise every poll would see them as just published and {@link FeedScheduler} would poll the feed as often as it can.
+     */
+    private Flux<Article> fetchArticles(Outline outline) {
+        return Flux.defer(() -> {
+            String url = outline.getXmlUrl();
+            Instant polled = Instant.now();
+            Map<URI, Instant> seenBefore = firstSeen.getOrDefault(url, Map.of());
+            Map<URI, Instant> seen = new HashMap<>();
+            Function<URI, Instant> firstSeenDate = link -> seen.computeIfAbsent(link, key -> seenBefore.getOrDefault(key, polled));
+            return Mono
+                    .fromCallable(() -> new URL(url))
+                    .flatMapMany(feedReader::fetch)
+                    .<Article>handle((entry, sink) -> toArticle(entry, firstSeenDate, sink))
+                    .doOnComplete(() -> firstSeen.put(url, seen))
+                    .doOnError(e -> log.warn("Error {}: {}", url, e.toString()))
+                    .onErrorResume(e -> Flux.empty());
+        });
+    }
+
+    private static void toArticle(SyndEntry entry, Function<URI, Instant> firstSeenDate, SynchronousSink<Article> sink) {
+        if (entry.getLink() == null) {
+            return;
+        }
+        try {
+            URI link = URI.create(entry.getLink().trim());
+            sink.next(new Article(
+                    link,
+                    publishedDate(entry, link, firstSeenDate),
+                    entry.getTitle(),
+                    ContentHash.of(entry.getTitle(), content(entry))));
+        } catch (IllegalArgumentException e) {
+            log.debug("Skipping entry with invalid link {}", entry.getLink());
+        }
+    }
+
+    private static String content(SyndEntry entry) {
+        if (!entry.getContents().isEmpty()) {
+            return entry
+                    .getContents()
+                    .stream()
+                    .map(SyndContent::getValue)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.joining("\n"));
+        }
+        return entry.getDescription() != null ? entry.getDescription().getValue() : null;
+    }
+
+    private static Instant publishedDate(SyndEntry entry, URI link, Function<URI, Instant> firstSeenDate) {
+        Date date = entry.getPublishedDate() != null ? entry.getPublishedDate() : entry.getUpdatedDate();
+        return date != null ? date.toInstant() : firstSeenDate.apply(link);
     }
 }
 
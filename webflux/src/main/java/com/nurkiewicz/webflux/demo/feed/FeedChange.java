@@ -0,0 +1,45 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import com.rometools.opml.feed.opml.Outline;
+
+/**
+ * Feed that appeared in or disappeared from the OPML file.
+ */
+public class FeedChange {
+
+    public enum Type {
+        ADDED, REMOVED
+    }
+
+    private final Type type;
+    private final Outline outline;
+
+    private FeedChange(Type type, Outline outline) {
+        this.type = type;
+        this.outline = outline;
+    }
+
+    static FeedChange added(Outline outline) {
+        return new FeedChange(Type.ADDED, outline);
+    }
+
+    static FeedChange removed(Outline outline) {
+        return new FeedChange(Type.REMOVED, outline);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Outline getOutline() {
+        return outline;
+    }
+
+    @Override
+    public String toString() {
+        return "FeedChange{" +
+                "type=" + type +
+                ", xmlUrl=" + outline.getXmlUrl() +
+                '}';
+    }
+}
@@ -0,0 +1,136 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+/**
+ * Guards calls to feed hosts with a {@link HostCircuitBreaker} per host.
+ * Only errors caused by the host count as failures: connection errors, timeouts and 5xx responses.
+ * Breakers of hosts not called for <code>idleExpiry</code> are evicted, so removed feeds don't hold their statistics forever.
+ */
+@Component
+public class FeedHosts {
+
+    private static final Logger log = LoggerFactory.getLogger(FeedHosts.class);
+
+    private final Cache<String, HostCircuitBreaker> breakers;
+    private final Clock clock;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Duration maxOpenDuration;
+    private final Duration latencyBudget;
+    private final Duration timeout;
+    private final Duration latencyWindow;
+
+    @Autowired
+    public FeedHosts(
+            @Value("${feed.hosts.failure-threshold:3}") int failureThreshold,
+            @Value("${feed.hosts.open-duration:10m}") Duration openDuration,
+            @Value("${feed.hosts.max-open-duration:6h}") Duration maxOpenDuration,
+            @Value("${feed.hosts.latency-budget:10s}") Duration latencyBudget,
+            @Value("${feed.hosts.timeout:30s}") Duration timeout,
+            @Value("${feed.hosts.latency-window:10m}") Duration latencyWindow,
+            @Value("${feed.hosts.idle-expiry:12h}") Duration idleExpiry) {
+        this(Clock.systemUTC(), failureThreshold, openDuration, maxOpenDuration, latencyBudget, timeout, latencyWindow, idleExpiry);
+    }
+
+    FeedHosts(Clock clock, int failureThreshold, Duration openDuration, Duration maxOpenDuration, Duration latencyBudget, Duration timeout,
+              Duration latencyWindow, Duration idleExpiry) {
+        this.clock = clock;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.maxOpenDuration = maxOpenDuration;
+        this.latencyBudget = latencyBudget;
+        this.timeout = timeout;
+        this.latencyWindow = latencyWindow;
+        this.breakers = Caffeine.newBuilder()
+                .expireAfterAccess(idleExpiry)
+                .ticker(() -> TimeUnit.MILLISECONDS.toNanos(clock.millis()))
+                .executor(Runnable::run)
+                .build();
+    }
+
+    /**
+     * Subscribes to <code>call</code> only if circuit of given host lets it through, otherwise returns empty.
+     * Outcome and latency of the call are recorded, call is aborted after timeout.
+     */
+    public <T> Mono<T> call(String host, Mono<T> call) {
+        return Mono.defer(() -> {
+            HostCircuitBreaker breaker = breaker(host);
+            if (!breaker.tryAcquire(clock.instant())) {
+                log.debug("Skipping {}, circuit is {}", host, breaker.getState());
+                return Mono.empty();
+            }
+            long start = System.nanoTime();
+            return call
+                    .timeout(timeout)
+                    .doOnSuccess(x -> breaker.onSuccess(clock.instant(), since(start)))
+                    .doOnError(e -> {
+                        if (isHostFailure(e)) {
+                            breaker.onError(clock.instant(), since(start));
+                        } else {
+                            breaker.onIgnored(clock.instant(), since(start));
+                        }
+                    })
+                    .doOnCancel(breaker::onCancel);
+        });
+    }
+
+    /**
+     * Rate limiting, 4xx responses or parsing errors are our problem or the feed's, not host's availability.
+     */
+    static boolean isHostFailure(Throwable e) {
+        if (e instanceof WebClientResponseException) {
+            return ((WebClientResponseException) e).getRawStatusCode() >= 500;
+        }
+        return e instanceof WebClientRequestException
+                || e instanceof TimeoutException
+                || e instanceof IOException;
+    }
+
+    public SortedMap<String, HostCircuitBreaker.HostStatus> status() {
+        breakers.cleanUp();
+        SortedMap<String, HostCircuitBreaker.HostStatus> status = new TreeMap<>();
+        for (Map.Entry<String, HostCircuitBreaker> entry : breakers.asMap().entrySet()) {
+            status.put(entry.getKey(), entry.getValue().status(clock.instant()));
+        }
+        return status;
+    }
+
+    /**
+     * Doesn't count as access, looking at a host through actuator won't keep it from being evicted.
+     */
+    public Optional<HostCircuitBreaker.HostStatus> status(String host) {
+        return Optional.ofNullable(breakers.policy().getIfPresentQuietly(host))
+                .map(breaker -> breaker.status(clock.instant()));
+    }
+
+    private HostCircuitBreaker breaker(String host) {
+        return breakers.get(host, h ->
+                new HostCircuitBreaker(h, failureThreshold, openDuration, maxOpenDuration, latencyBudget, latencyWindow, clock.instant()));
+    }
+
+    private static Duration since(long startNanos) {
+        return Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+
+}
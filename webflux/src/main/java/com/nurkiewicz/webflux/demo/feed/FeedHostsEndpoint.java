@@ -0,0 +1,33 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.util.SortedMap;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+/**
+ * <code>/actuator/feedhosts</code>, circuit state and fetch latency of every feed host.
+ */
+@Component
+@Endpoint(id = "feedhosts")
+public class FeedHostsEndpoint {
+
+    private final FeedHosts feedHosts;
+
+    public FeedHostsEndpoint(FeedHosts feedHosts) {
+        this.feedHosts = feedHosts;
+    }
+
+    @ReadOperation
+    public SortedMap<String, HostCircuitBreaker.HostStatus> hosts() {
+        return feedHosts.status();
+    }
+
+    @ReadOperation
+    public HostCircuitBreaker.HostStatus host(@Selector String host) {
+        return feedHosts.status(host).orElse(null);
+    }
+
+}
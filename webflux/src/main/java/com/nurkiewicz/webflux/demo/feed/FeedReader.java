@@ -2,9 +2,17 @@ package com.nurkiewicz.webflux.demo.feed;
 
 import com.rometools.rome.feed.synd.SyndEntry;
 import com.rometools.rome.io.SyndFeedInput;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.w3c.dom.Document;
 import reactor.core.publisher.Flux;
@@ -25,11 +33,25 @@ public class FeedReader {
 
     private static final Logger log = LoggerFactory.getLogger(FeedReader.class);
 
+    private static final byte[] WRONG_ATOM_NAMESPACE = "https://www.w3.org/2005/Atom".getBytes(UTF_8);
 
     private WebClient webClient;
-
-    public FeedReader(WebClient webClient) {
+    private final RedisRepository redisRepository;
+    private final FeedHosts feedHosts;
+    private final MeterRegistry meterRegistry;
+    private final int maxBodySize;
+
+    public FeedReader(
+            @Qualifier("feeds") WebClient webClient,
+            RedisRepository redisRepository,
+            FeedHosts feedHosts,
+            MeterRegistry meterRegistry,
+            @Value("${feed.max-body-size:2MB}") DataSize maxBodySize) {
         this.webClient = webClient;
+        this.redisRepository = redisRepository;
+        this.feedHosts = feedHosts;
+        this.meterRegistry = meterRegistry;
+        this.maxBodySize = Math.toIntExact(maxBodySize.toBytes());
     }
 
     /**
@@ -39,7 +61,7 @@ public class FeedReader {
      * Czyta konkretny blog i czyta listę artykułów, chcielibyśmy by zwracała Flux, zastąpić get getAsync()
      */
     public Flux<SyndEntry> fetch(URL url) {
-        return getAsync(url)
+        return body(url)
                 .doOnError(SocketException.class, e -> log.warn("Error {}: {}", url, e.toString()))
                 .onErrorResume(SocketException.class, e -> Mono.empty())
                 .flatMap(it -> parseFeed(it))
@@ -48,20 +70,60 @@ public class FeedReader {
 
     }
 
-    private Mono<List<SyndEntry>> parseFeed(String feedBody) {
+    /**
+     * Parses raw bytes, so encoding declared in XML prolog is respected and no <code>String</code> copy is made.
+     */
+    private Mono<List<SyndEntry>> parseFeed(byte[] feedBody) {
         return Mono.fromCallable(() -> {
             DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
             DocumentBuilder builder = factory.newDocumentBuilder();
-            ByteArrayInputStream is = new ByteArrayInputStream(applyAtomNamespaceFix(feedBody).getBytes(UTF_8));
+            ByteArrayInputStream is = new ByteArrayInputStream(applyAtomNamespaceFix(feedBody));
             Document doc = builder.parse(is);
             SyndFeedInput input = new SyndFeedInput();
             return input.build(doc).getEntries();
         });
     }
 
+    /**
+     * Replaces <code>https://www.w3.org/2005/Atom</code> with <code>http://...</code>.
+     * Body is never modified, it may be shared (e.g. being cached at the same time), a corrected copy is returned.
+     */
+    static byte[] applyAtomNamespaceFix(byte[] feedBody) {
+        int length = feedBody.length;
+        int read = indexOf(feedBody, 0, length);
+        if (read < 0) {
+            return feedBody;
+        }
+        int occurrences = 0;
+        for (int found = read; found >= 0; found = indexOf(feedBody, found + WRONG_ATOM_NAMESPACE.length, length)) {
+            occurrences++;
+        }
+        byte[] fixed = new byte[length - occurrences];
+        System.arraycopy(feedBody, 0, fixed, 0, read);
+        int write = read;
+        while (read >= 0) {
+            int next = indexOf(feedBody, read + WRONG_ATOM_NAMESPACE.length, length);
+            int end = next < 0 ? length : next;
+            //copy "http" and skip "s"
+            System.arraycopy(feedBody, read, fixed, write, 4);
+            System.arraycopy(feedBody, read + 5, fixed, write + 4, end - read - 5);
+            write += end - read - 1;
+            read = next;
+        }
+        return fixed;
+    }
 
-    private String applyAtomNamespaceFix(String feedBody) {
-        return feedBody.replace("https://www.w3.org/2005/Atom", "http://www.w3.org/2005/Atom");
+    private static int indexOf(byte[] bytes, int from, int to) {
+        outer:
+        for (int i = from; i <= to - WRONG_ATOM_NAMESPACE.length; i++) {
+            for (int j = 0; j < WRONG_ATOM_NAMESPACE.length; j++) {
+                if (bytes[i + j] != WRONG_ATOM_NAMESPACE[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
     }
 
     /*private String get(URL url) throws IOException {
@@ -77,21 +139,68 @@ public class FeedReader {
     /**
      * TODO (2) Load data asynchronously using {@link org.springframework.web.reactive.function.client.WebClient}
      *
+     * Bodies are cached in {@link RedisRepository}, so other instances do not fetch the same feed again.
+     * Downloads go through {@link FeedHosts}, empty when circuit of the host is open.
+     *
      * @see <a href="https://stackoverflow.com/questions/47655789/how-to-make-reactive-webclient-follow-3xx-redirects">How to make reactive webclient follow 3XX-redirects?</a>
      */
     Mono<String> getAsync(URL url) {
+        return body(url).map(body -> new String(body, UTF_8));
+    }
+
+    private Mono<byte[]> body(URL url) {
         Mono<URI> myUri = Mono.fromCallable(() -> url.toURI());
         //ten flatmap jest po to że konieczne jest przemapowanie URL na URI
         //niestety jest tam checked wyjąek. opakowanie tego w mono pozwala na
         //obsługę checked wyjątku bo fromCallable zamieni go na Mono.error()
-        return myUri.flatMap(uri ->
-                webClient
-                        .get()
-                        .uri(uri)
-                        .retrieve()
-                        .bodyToMono(String.class)
-        );
+        return myUri
+                .flatMap(uri -> redisRepository
+                        .findFeed(uri)
+                        .switchIfEmpty(download(uri)
+                                .flatMap(body -> redisRepository.saveFeed(uri, body).thenReturn(body))));
+    }
+
+    /**
+     * Compression is negotiated by the client, decompressed chunks are joined without intermediate copies
+     * and copied once into the resulting array.
+     * <p>
+     * The whole body is in memory before parsing starts: it is cached in Redis as a single value and parsed into a DOM anyway,
+     * so streaming it into the parser would not lower the peak. Instead <code>feed.max-body-size</code> (2 MB, well above
+     * typical feeds) bounds it, with <code>feed.concurrency</code> downloads in flight at most
+     * <code>concurrency * max-body-size</code> is held at once. Larger feeds fail with {@link DataBufferLimitException}.
+     */
+    private Mono<byte[]> download(URI uri) {
+        return feedHosts.call(uri.getHost(), webClient
+                .get()
+                .uri(uri)
+                .retrieve()
+                .bodyToFlux(DataBuffer.class)
+                .as(body -> DataBufferUtils.join(body, maxBodySize))
+                .doOnError(DataBufferLimitException.class, e -> log.warn("Feed {} larger than {} bytes, skipped", uri, maxBodySize))
+                .map(buffer -> toBytes(uri, buffer)));
+    }
+
+    private byte[] toBytes(URI uri, DataBuffer buffer) {
+        try {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            decodedBytes(uri.getHost()).record(bytes.length);
+            return bytes;
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
 
+    /**
+     * Size after decompression, what is held in memory and cached.
+     * Compare with <code>reactor.netty.http.client.data.received</code> for bytes on the wire.
+     */
+    private DistributionSummary decodedBytes(String host) {
+        return DistributionSummary
+                .builder("feed.download.decoded.bytes")
+                .baseUnit("bytes")
+                .tag("host", host)
+                .register(meterRegistry);
     }
 }
 
@@ -0,0 +1,276 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.rometools.opml.feed.opml.Outline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Polls every feed on its own schedule.
+ * <p>
+ * Feeds wait in a min-heap ordered by next due time, a single timer is armed for the head of the heap.
+ * Due feeds are emitted only as fast as <code>flatMap</code> with <code>concurrency</code> requests them,
+ * so no more than <code>concurrency</code> feeds are fetched at once no matter how many are due.
+ * After each poll the interval of a feed is adjusted to how often it publishes, see {@link #nextInterval(Duration, List)}.
+ */
+@Component
+public class FeedScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(FeedScheduler.class);
+
+    private final Scheduler scheduler;
+    private final Duration initialInterval;
+    private final Duration minInterval;
+    private final Duration maxInterval;
+    private final int concurrency;
+
+    private final PriorityQueue<Subscription> queue = new PriorityQueue<>();
+    private final Map<String, Subscription> subscriptions = new HashMap<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicLong requested = new AtomicLong();
+    private final Disposable.Swap timer = Disposables.swap();
+    private long sequence;
+    private volatile FluxSink<Subscription> sink;
+
+    @Autowired
+    public FeedScheduler(
+            @Value("${feed.poll-interval:5m}") Duration initialInterval,
+            @Value("${feed.scheduler.min-interval:1m}") Duration minInterval,
+            @Value("${feed.scheduler.max-interval:6h}") Duration maxInterval,
+            @Value("${feed.concurrency:16}") int concurrency) {
+        this(Schedulers.parallel(), initialInterval, minInterval, maxInterval, concurrency);
+    }
+
+    FeedScheduler(Scheduler scheduler, Duration initialInterval, Duration minInterval, Duration maxInterval, int concurrency) {
+        this.scheduler = scheduler;
+        this.initialInterval = initialInterval;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * New feed is due immediately. Adding a feed twice has no effect.
+     */
+    public void add(Outline outline) {
+        synchronized (queue) {
+            if (subscriptions.containsKey(outline.getXmlUrl())) {
+                return;
+            }
+            Subscription subscription = new Subscription(outline, initialInterval);
+            subscriptions.put(outline.getXmlUrl(), subscription);
+            enqueue(subscription, now());
+        }
+        drain();
+    }
+
+    /**
+     * Feed being fetched right now is not interrupted, just never rescheduled.
+     */
+    public void remove(Outline outline) {
+        synchronized (queue) {
+            Subscription subscription = subscriptions.remove(outline.getXmlUrl());
+            if (subscription != null) {
+                //removing from the middle of a heap is linear, skipped when polled instead
+                subscription.removed = true;
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (queue) {
+            return subscriptions.size();
+        }
+    }
+
+    /**
+     * Polls due feeds with <code>fetch</code> until cancelled. Only one subscriber at a time.
+     */
+    public Flux<Article> start(Function<Outline, Flux<Article>> fetch) {
+        return Flux
+                .<Subscription>create(sink -> {
+                    this.sink = sink;
+                    sink.onRequest(n -> {
+                        requested.getAndUpdate(current -> Operators.addCap(current, n));
+                        drain();
+                    });
+                    sink.onDispose(() -> {
+                        timer.update(Disposables.disposed());
+                        this.sink = null;
+                    });
+                    drain();
+                })
+                .flatMap(subscription -> poll(subscription, fetch), concurrency);
+    }
+
+    private Flux<Article> poll(Subscription subscription, Function<Outline, Flux<Article>> fetch) {
+        return fetch
+                .apply(subscription.outline)
+                .collectList()
+                .onErrorResume(e -> {
+                    log.debug("Poll of {} failed: {}", subscription.outline.getXmlUrl(), e.toString());
+                    return Mono.just(List.of());
+                })
+                .doOnNext(articles -> reschedule(subscription, articles))
+                .flatMapIterable(articles -> articles);
+    }
+
+    private void reschedule(Subscription subscription, List<Article> articles) {
+        long now = now();
+        synchronized (queue) {
+            subscription.interval = nextInterval(subscription.interval, articles);
+            subscription.polls++;
+            if (!subscription.removed) {
+                enqueue(subscription, now + subscription.interval.toMillis());
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Half of the average gap between distinct publication dates (or time since last article, if longer)
+     * clamped to <code>[minInterval, maxInterval]</code>. Feeds without dated articles back off exponentially.
+     */
+    Duration nextInterval(Duration current, List<Article> articles) {
+        long newest = Long.MIN_VALUE;
+        long oldest = Long.MAX_VALUE;
+        long distinct = articles
+                .stream()
+                .map(Article::getPublishedDate)
+                .distinct()
+                .count();
+        for (Article article : articles) {
+            long published = article.getPublishedDate().toEpochMilli();
+            newest = Math.max(newest, published);
+            oldest = Math.min(oldest, published);
+        }
+        if (distinct < 2) {
+            return clamp(current.multipliedBy(2));
+        }
+        long gap = (newest - oldest) / (distinct - 1);
+        long silence = now() - newest;
+        return clamp(Duration.ofMillis(Math.max(gap, silence) / 2));
+    }
+
+    private Duration clamp(Duration interval) {
+        if (interval.compareTo(minInterval) < 0) {
+            return minInterval;
+        }
+        return interval.compareTo(maxInterval) > 0 ? maxInterval : interval;
+    }
+
+    private void enqueue(Subscription subscription, long due) {
+        subscription.due = due;
+        subscription.sequence = sequence++;
+        queue.add(subscription);
+    }
+
+    /**
+     * Emits due feeds while there is demand, then arms the timer for the next one.
+     * Called from many threads, only one of them runs the loop.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            FluxSink<Subscription> sink = this.sink;
+            if (sink != null) {
+                emitDue(sink);
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    private void emitDue(FluxSink<Subscription> sink) {
+        long now = now();
+        while (requested.get() > 0) {
+            Subscription next;
+            synchronized (queue) {
+                Subscription head = queue.peek();
+                if (head == null) {
+                    return;
+                }
+                if (head.due > now) {
+                    armTimer(head.due - now);
+                    return;
+                }
+                next = queue.poll();
+            }
+            if (next.removed) {
+                continue;
+            }
+            requested.decrementAndGet();
+            sink.next(next);
+        }
+    }
+
+    private void armTimer(long delayMillis) {
+        timer.update(scheduler.schedule(this::drain, delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    private long now() {
+        return scheduler.now(TimeUnit.MILLISECONDS);
+    }
+
+    Duration interval(String xmlUrl) {
+        synchronized (queue) {
+            return subscriptions.get(xmlUrl).interval;
+        }
+    }
+
+    long polls(String xmlUrl) {
+        synchronized (queue) {
+            return subscriptions.get(xmlUrl).polls;
+        }
+    }
+
+    Instant due(String xmlUrl) {
+        synchronized (queue) {
+            return Instant.ofEpochMilli(subscriptions.get(xmlUrl).due);
+        }
+    }
+
+    private static class Subscription implements Comparable<Subscription> {
+
+        private final Outline outline;
+        private Duration interval;
+        private long due;
+        private long sequence;
+        private long polls;
+        private boolean removed;
+
+        Subscription(Outline outline, Duration interval) {
+            this.outline = outline;
+            this.interval = interval;
+        }
+
+        @Override
+        public int compareTo(Subscription other) {
+            int byDue = Long.compare(due, other.due);
+            return byDue != 0 ? byDue : Long.compare(sequence, other.sequence);
+        }
+    }
+
+}
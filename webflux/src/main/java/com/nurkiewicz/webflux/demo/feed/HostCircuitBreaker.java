@@ -0,0 +1,266 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Health of a single feed host.
+ * <p>
+ * After <code>failureThreshold</code> consecutive failures the breaker opens and the host is skipped.
+ * Once open duration elapses a single probe is let through (half-open). Successful probe closes the breaker,
+ * failed one opens it again for twice as long, up to <code>maxOpenDuration</code>.
+ * Calls slower than latency budget count as failures, so slow hosts end up polled less often as well.
+ * Errors that say nothing about the host (see {@link #onIgnored(Instant, Duration)}) neither open nor close the breaker.
+ * <p>
+ * Latency percentiles cover the current <code>latencyWindow</code> only, the histogram is reset when it elapses.
+ */
+class HostCircuitBreaker {
+
+    private static final long MAX_LATENCY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String host;
+    private final int failureThreshold;
+    private final Duration baseOpenDuration;
+    private final Duration maxOpenDuration;
+    private final Duration latencyBudget;
+    private final Duration latencyWindow;
+
+    private final Recorder recorder = new Recorder(MAX_LATENCY_MILLIS, 2);
+    private final Histogram interval = new Histogram(MAX_LATENCY_MILLIS, 2);
+    private final Histogram latencies = new Histogram(MAX_LATENCY_MILLIS, 2);
+    private Instant windowStart;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private Duration openDuration;
+    private Instant openUntil;
+    private boolean probeInFlight;
+    private long successes;
+    private long failures;
+    private long slow;
+    private long skipped;
+    private long ignored;
+
+    HostCircuitBreaker(String host, int failureThreshold, Duration openDuration, Duration maxOpenDuration,
+                       Duration latencyBudget, Duration latencyWindow, Instant now) {
+        this.host = host;
+        this.failureThreshold = failureThreshold;
+        this.baseOpenDuration = openDuration;
+        this.openDuration = openDuration;
+        this.maxOpenDuration = maxOpenDuration;
+        this.latencyBudget = latencyBudget;
+        this.latencyWindow = latencyWindow;
+        this.windowStart = now;
+    }
+
+    /**
+     * @return <code>false</code> if host should be skipped this time
+     */
+    synchronized boolean tryAcquire(Instant now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now.isBefore(openUntil)) {
+                    skipped++;
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            default:
+                if (probeInFlight) {
+                    skipped++;
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    synchronized void onSuccess(Instant now, Duration latency) {
+        record(now, latency);
+        if (latency.compareTo(latencyBudget) > 0) {
+            slow++;
+            onFailure(now);
+        } else {
+            successes++;
+            consecutiveFailures = 0;
+            if (state == State.HALF_OPEN) {
+                state = State.CLOSED;
+                probeInFlight = false;
+                openDuration = baseOpenDuration;
+            }
+        }
+    }
+
+    synchronized void onError(Instant now, Duration latency) {
+        record(now, latency);
+        onFailure(now);
+    }
+
+    /**
+     * Error on our side or in the request itself (rate limit, 4xx, unparseable body), the host did answer.
+     * A probe that ended this way is released, so the next call tries again.
+     */
+    synchronized void onIgnored(Instant now, Duration latency) {
+        record(now, latency);
+        ignored++;
+        probeInFlight = false;
+    }
+
+    /**
+     * Cancelled probe says nothing about the host, let the next one through.
+     */
+    synchronized void onCancel() {
+        probeInFlight = false;
+    }
+
+    private void onFailure(Instant now) {
+        failures++;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            Duration doubled = openDuration.multipliedBy(2);
+            openDuration = doubled.compareTo(maxOpenDuration) > 0 ? maxOpenDuration : doubled;
+            open(now);
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open(now);
+        }
+    }
+
+    private void open(Instant now) {
+        state = State.OPEN;
+        probeInFlight = false;
+        openUntil = now.plus(openDuration);
+    }
+
+    private void record(Instant now, Duration latency) {
+        roll(now);
+        recorder.recordValue(Math.min(latency.toMillis(), MAX_LATENCY_MILLIS));
+    }
+
+    /**
+     * Starts a new window once the current one elapsed, dropping everything recorded so far.
+     */
+    private void roll(Instant now) {
+        if (!now.isBefore(windowStart.plus(latencyWindow))) {
+            recorder.reset();
+            latencies.reset();
+            windowStart = now;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized HostStatus status(Instant now) {
+        roll(now);
+        recorder.getIntervalHistogramInto(interval);
+        latencies.add(interval);
+        return new HostStatus(
+                host,
+                state,
+                consecutiveFailures,
+                state == State.CLOSED ? null : openUntil,
+                successes,
+                failures,
+                slow,
+                skipped,
+                ignored,
+                latencies.getValueAtPercentile(50),
+                latencies.getValueAtPercentile(99),
+                latencies.getMaxValue());
+    }
+
+    /**
+     * Immutable view exposed through actuator.
+     */
+    public static class HostStatus {
+
+        private final String host;
+        private final State state;
+        private final int consecutiveFailures;
+        private final Instant openUntil;
+        private final long successes;
+        private final long failures;
+        private final long slow;
+        private final long skipped;
+        private final long ignored;
+        private final long p50Millis;
+        private final long p99Millis;
+        private final long maxMillis;
+
+        HostStatus(String host, State state, int consecutiveFailures, Instant openUntil, long successes, long failures,
+                   long slow, long skipped, long ignored, long p50Millis, long p99Millis, long maxMillis) {
+            this.host = host;
+            this.state = state;
+            this.consecutiveFailures = consecutiveFailures;
+            this.openUntil = openUntil;
+            this.successes = successes;
+            this.failures = failures;
+            this.slow = slow;
+            this.skipped = skipped;
+            this.ignored = ignored;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        public Instant getOpenUntil() {
+            return openUntil;
+        }
+
+        public long getSuccesses() {
+            return successes;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getSlow() {
+            return slow;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getIgnored() {
+            return ignored;
+        }
+
+        public long getP50Millis() {
+            return p50Millis;
+        }
+
+        public long getP99Millis() {
+            return p99Millis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+    }
+
+}
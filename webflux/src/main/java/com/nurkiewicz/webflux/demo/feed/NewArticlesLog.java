@@ -0,0 +1,121 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Capped collection holding recently inserted articles.
+ * Tailing it with a tailable cursor gives an infinite stream of new articles without polling.
+ */
+@Repository
+public class NewArticlesLog {
+
+    private static final Logger log = LoggerFactory.getLogger(NewArticlesLog.class);
+
+    static final String COLLECTION = "newArticles";
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final Mono<Void> created;
+
+    public NewArticlesLog(
+            ReactiveMongoTemplate mongoTemplate,
+            @Value("${feed.new-articles.max-bytes:1048576}") long maxBytes,
+            @Value("${feed.new-articles.max-documents:1000}") long maxDocuments) {
+        this.mongoTemplate = mongoTemplate;
+        this.created = createIfMissing(maxBytes, maxDocuments).cache();
+    }
+
+    private Mono<Void> createIfMissing(long maxBytes, long maxDocuments) {
+        return mongoTemplate
+                .collectionExists(COLLECTION)
+                .filter(exists -> !exists)
+                .flatMap(missing -> mongoTemplate.createCollection(COLLECTION,
+                        CollectionOptions.empty().capped().size(maxBytes).maxDocuments(maxDocuments)))
+                .doOnNext(c -> log.info("Created capped collection {}", COLLECTION))
+                //another instance might have created it in the meantime
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    Mono<Void> append(List<Article> articles) {
+        if (articles.isEmpty()) {
+            return Mono.empty();
+        }
+        List<Document> documents = articles
+                .stream()
+                .map(this::toDocument)
+                .collect(Collectors.toList());
+        return created
+                .then(mongoTemplate.getCollection(COLLECTION))
+                .flatMap(collection -> Mono.from(collection.insertMany(documents)))
+                .then();
+    }
+
+    /**
+     * Articles appended after subscription. Every subscriber opens its own cursor,
+     * share the returned {@link Flux} rather than subscribing many times.
+     * <p>
+     * Starts after the newest document already in the collection (in insertion, <code>$natural</code> order),
+     * not after an id generated locally, so clock of this instance doesn't matter. Reopened cursor resumes after the last document seen.
+     * Every subscription starts afresh, e.g. after {@link ArticlesStream} reconnects, it doesn't replay what it missed meanwhile.
+     */
+    Flux<Article> tail() {
+        return Flux.defer(() -> {
+            AtomicReference<ObjectId> lastSeen = new AtomicReference<>();
+            AtomicBoolean started = new AtomicBoolean();
+            Mono<Void> start = Mono.defer(() -> started.get() ? Mono.empty() : newest()
+                    .doOnNext(lastSeen::set)
+                    .doOnSuccess(id -> started.set(true))
+                    .then());
+            return created
+                    .then(start)
+                    .thenMany(Flux.defer(() -> mongoTemplate.tail(after(lastSeen.get()), Document.class, COLLECTION)))
+                    .doOnNext(document -> lastSeen.set(document.getObjectId("_id")))
+                    //cursor is dead when nothing matches yet, reopen it after a while
+                    .repeatWhen(completed -> completed.delayElements(Duration.ofSeconds(1)))
+                    .retryWhen(Retry
+                            .backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                            .maxBackoff(Duration.ofSeconds(30))
+                            .doBeforeRetry(signal -> log.warn("Tailing {} failed: {}", COLLECTION, signal.failure().toString())));
+        }).map(document -> mongoTemplate.getConverter().read(Article.class, document.get("article", Document.class)));
+    }
+
+    private Mono<ObjectId> newest() {
+        Query query = new Query().with(Sort.by(Sort.Direction.DESC, "$natural")).limit(1);
+        query.fields().include("_id");
+        return mongoTemplate
+                .findOne(query, Document.class, COLLECTION)
+                .map(document -> document.getObjectId("_id"));
+    }
+
+    private static Query after(ObjectId lastSeen) {
+        return lastSeen == null ? new Query() : Query.query(Criteria.where("_id").gt(lastSeen));
+    }
+
+    private Document toDocument(Article article) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(article, document);
+        //article's own _id is its link, the log needs an insertion ordered one
+        return new Document("_id", new ObjectId()).append("article", document);
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import javax.annotation.PostConstruct;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded, in-memory index of the most recent articles, newest first.
+ * Reads never lock, writes are serialized and evict the oldest article once capacity is exceeded.
+ */
+@Component
+public class NewestArticles {
+
+    private static final Logger log = LoggerFactory.getLogger(NewestArticles.class);
+
+    static final Comparator<Article> NEWEST_FIRST = Comparator
+            .comparing(Article::getPublishedDate)
+            .reversed()
+            .thenComparing(article -> article.getLink().toString());
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final int capacity;
+    private final NavigableSet<Article> byDate = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+    private final Map<URI, Article> byLink = new HashMap<>();
+
+    public NewestArticles(ReactiveMongoTemplate mongoTemplate, @Value("${feed.newest.capacity:5000}") int capacity) {
+        this.mongoTemplate = mongoTemplate;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Loads newest articles with a single query, using descending index on <code>publishedDate</code>.
+     */
+    @PostConstruct
+    public void warmUp() {
+        mongoTemplate
+                .indexOps(Article.class)
+                .ensureIndex(new Index("publishedDate", Sort.Direction.DESC))
+                .thenMany(mongoTemplate.find(
+                        new Query().with(Sort.by(Sort.Direction.DESC, "publishedDate")).limit(capacity),
+                        Article.class))
+                .doOnNext(this::add)
+                .count()
+                .subscribe(
+                        count -> log.info("Loaded {} newest articles", count),
+                        e -> log.warn("Unable to load newest articles: {}", e.toString()));
+    }
+
+    /**
+     * Adds or replaces article with the same link.
+     */
+    public synchronized void add(Article article) {
+        if (article.getPublishedDate() == null) {
+            return;
+        }
+        if (!byLink.isEmpty() && byLink.size() >= capacity && NEWEST_FIRST.compare(article, byDate.last()) > 0) {
+            //older than anything we keep
+            return;
+        }
+        Article previous = byLink.put(article.getLink(), article);
+        if (previous != null) {
+            byDate.remove(previous);
+        }
+        byDate.add(article);
+        while (byLink.size() > capacity) {
+            byLink.remove(byDate.pollLast().getLink());
+        }
+    }
+
+    public List<Article> newest(int limit) {
+        List<Article> newest = new ArrayList<>(Math.max(0, Math.min(limit, capacity)));
+        Iterator<Article> iterator = byDate.iterator();
+        while (newest.size() < limit && iterator.hasNext()) {
+            newest.add(iterator.next());
+        }
+        return newest;
+    }
+
+}
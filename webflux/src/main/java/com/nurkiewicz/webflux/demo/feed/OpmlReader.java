@@ -1,46 +1,260 @@
 package com.nurkiewicz.webflux.demo.feed;
 
-import java.io.BufferedReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
-import com.rometools.opml.feed.opml.Opml;
+import com.rometools.opml.feed.opml.Attribute;
 import com.rometools.opml.feed.opml.Outline;
-import com.rometools.rome.io.FeedException;
-import com.rometools.rome.io.WireFeedInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Schedulers;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import reactor.core.publisher.Mono;
 
+/**
+ * Streams feeds (outlines with <code>xmlUrl</code>) from OPML file, no matter how deeply they are nested in categories.
+ * <p>
+ * File is read with StAX, one outline at a time, on {@link Schedulers#boundedElastic()}, and parsed list is cached.
+ * When the file lives on a file system (classpath directory or absolute path) it is watched for changes,
+ * see {@link #changes()}.
+ */
 @Component
 public class OpmlReader {
 
+    private static final Logger log = LoggerFactory.getLogger(OpmlReader.class);
+
+    private static final XMLInputFactory XML = xmlInputFactory();
+
     public final String feedFile;
+    private final Duration reloadInterval;
+    private final AtomicReference<List<Outline>> feeds = new AtomicReference<>();
+    private volatile FileTime lastModified;
+
+    public OpmlReader(String feedFile) {
+        this(feedFile, Duration.ofSeconds(10));
+    }
 
-    public OpmlReader(@Value("${feed-file}") String feedFile) {
+    @Autowired
+    public OpmlReader(@Value("${feed-file}") String feedFile, @Value("${feed.opml-reload-interval:10s}") Duration reloadInterval) {
         this.feedFile = feedFile;
+        this.reloadInterval = reloadInterval;
     }
 
+    /**
+     * Lazy, nothing is read until subscription. First subscriber streams the file, subsequent ones get cached list.
+     */
+    public Flux<Outline> allFeedsStream() {
+        return Flux.defer(() -> {
+            List<Outline> cached = feeds.get();
+            if (cached != null) {
+                return Flux.fromIterable(cached);
+            }
+            List<Outline> parsed = new ArrayList<>();
+            return parse()
+                    .doOnNext(parsed::add)
+                    .doOnComplete(() -> feeds.compareAndSet(null, List.copyOf(parsed)));
+        });
+    }
+
+    /**
+     * All feeds as {@link FeedChange.Type#ADDED} first, then only feeds added or removed
+     * whenever the file is modified. When the file can't be read yet, it is retried on every poll.
+     */
+    public Flux<FeedChange> changes() {
+        return Flux.concat(
+                Flux.defer(() -> feeds.get() == null ?
+                        Flux.empty() :
+                        Flux.fromIterable(feeds.get()).map(FeedChange::added)),
+                Flux
+                        .interval(Duration.ZERO, reloadInterval)
+                        .onBackpressureDrop()
+                        .concatMap(tick -> reloadIfModified(), 1)
+        );
+    }
 
-    public Flux<Outline> allFeedsStream(){
-        return Mono.fromCallable(this::allFeeds).flatMapIterable(it->it);
+    private Flux<FeedChange> reloadIfModified() {
+        return Mono
+                .fromCallable(() -> feeds.get() == null || modifiedSinceLastParse())
+                //file system, not the parallel scheduler of interval()
+                .subscribeOn(Schedulers.boundedElastic())
+                .filter(reload -> reload)
+                .flatMap(reload -> parse().collectList())
+                .flatMapIterable(this::replace)
+                .doOnNext(change -> log.info("{} changed: {}", feedFile, change))
+                .onErrorResume(e -> {
+                    log.warn("Unable to reload {}: {}", feedFile, e.toString());
+                    //parsed only partially, try again on next poll
+                    lastModified = null;
+                    return Flux.empty();
+                });
     }
-    public List<Outline> allFeeds() throws FeedException, IOException {
-        WireFeedInput input = new WireFeedInput();
-        try(final InputStream inputStream = OpmlReader.class.getResourceAsStream(feedFile)) {
-            final InputStreamReader streamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-            final Reader reader = new BufferedReader(streamReader);
-            Opml feed = (Opml) input.build(reader);
-            return feed.getOutlines();
+
+    private boolean modifiedSinceLastParse() throws IOException, URISyntaxException {
+        FileTime modified = currentModificationTime();
+        return modified != null && !modified.equals(lastModified);
+    }
+
+    private synchronized List<FeedChange> replace(List<Outline> fresh) {
+        Map<String, Outline> previous = byXmlUrl(feeds.get() == null ? List.of() : feeds.get());
+        Map<String, Outline> current = byXmlUrl(fresh);
+        List<FeedChange> changes = new ArrayList<>();
+        previous.forEach((url, outline) -> {
+            if (!current.containsKey(url)) {
+                changes.add(FeedChange.removed(outline));
+            }
+        });
+        current.forEach((url, outline) -> {
+            if (!previous.containsKey(url)) {
+                changes.add(FeedChange.added(outline));
+            }
+        });
+        feeds.set(List.copyOf(fresh));
+        return changes;
+    }
+
+    private static Map<String, Outline> byXmlUrl(List<Outline> outlines) {
+        Map<String, Outline> byXmlUrl = new LinkedHashMap<>();
+        outlines.forEach(outline -> byXmlUrl.put(outline.getXmlUrl(), outline));
+        return byXmlUrl;
+    }
+
+    private Flux<Outline> parse() {
+        return Flux.using(
+                this::open,
+                stream -> Flux.using(
+                        () -> XML.createXMLStreamReader(stream),
+                        reader -> Flux.<Outline>generate(sink -> nextFeed(reader, sink)),
+                        OpmlReader::closeReader),
+                OpmlReader::closeStream)
+                //reading the file blocks
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private InputStream open() throws IOException, URISyntaxException {
+        URL location = location();
+        lastModified = modified(location);
+        return new BufferedInputStream(location.openStream());
+    }
+
+    private static void nextFeed(XMLStreamReader reader, SynchronousSink<Outline> sink) {
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "outline".equals(reader.getLocalName())) {
+                    Outline outline = toOutline(reader);
+                    //outlines without xmlUrl are categories, their children are visited anyway
+                    if (outline.getXmlUrl() != null) {
+                        sink.next(outline);
+                        return;
+                    }
+                }
+            }
+            sink.complete();
+        } catch (XMLStreamException e) {
+            sink.error(e);
         }
     }
 
+    private static Outline toOutline(XMLStreamReader reader) {
+        Outline outline = new Outline();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String value = reader.getAttributeValue(i);
+            switch (reader.getAttributeLocalName(i)) {
+                case "type":
+                    outline.setType(value);
+                    break;
+                case "text":
+                    outline.setText(value);
+                    break;
+                case "title":
+                    outline.setTitle(value);
+                    break;
+                default:
+                    //xmlUrl, htmlUrl and anything else, read back with getAttributeValue()
+                    outline.getAttributes().add(new Attribute(reader.getAttributeLocalName(i), value));
+                    break;
+            }
+        }
+        if (outline.getTitle() == null) {
+            outline.setTitle(outline.getText());
+        }
+        return outline;
+    }
+
+    /**
+     * Classpath resource first, then file system path.
+     */
+    private URL location() throws IOException {
+        URL resource = OpmlReader.class.getResource(feedFile);
+        if (resource != null) {
+            return resource;
+        }
+        Path path = Paths.get(feedFile);
+        if (Files.exists(path)) {
+            return path.toUri().toURL();
+        }
+        throw new FileNotFoundException(feedFile);
+    }
+
+    private FileTime currentModificationTime() throws IOException, URISyntaxException {
+        return modified(location());
+    }
+
+    /**
+     * @return <code>null</code> when file is not on a file system (e.g. inside JAR) and can't be watched
+     */
+    private static FileTime modified(URL location) throws IOException, URISyntaxException {
+        if (!"file".equals(location.getProtocol())) {
+            return null;
+        }
+        return Files.getLastModifiedTime(Paths.get(location.toURI()));
+    }
+
+    private static void closeReader(XMLStreamReader reader) {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            log.debug("Unable to close reader", e);
+        }
+    }
+
+    private static void closeStream(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.debug("Unable to close {}", stream, e);
+        }
+    }
+
+    private static XMLInputFactory xmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
     /*
     Napisać taką wersję tej metody by zwracała Fluxa leniwego
 
@@ -1,15 +1,126 @@
 package com.nurkiewicz.webflux.demo.feed;
 
-import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Repository;
 
+/**
+ * Cache of raw feed bodies shared by all aggregator instances.
+ * Bodies are LZ4 compressed and expire after <code>feed.cache.ttl</code>, but no later than <code>feed.scheduler.min-interval</code>.
+ * Otherwise a feed polled more often than that would be served the same cached body again and new articles would show up late.
+ * <p>
+ * Metrics: <code>feed.cache.requests</code> tagged with <code>result=hit|miss</code>
+ * (every hit is a fetch avoided), <code>feed.cache.bytes</code> tagged with <code>form=raw|compressed</code>.
+ */
 @Repository
 public class RedisRepository {
 
-    private final ReactiveStringRedisTemplate redis;
+    private static final Logger log = LoggerFactory.getLogger(RedisRepository.class);
+
+    private static final String KEY_PREFIX = "feed:body:";
+
+    private final ReactiveRedisTemplate<String, byte[]> redis;
+    private final Duration ttl;
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final DistributionSummary rawBytes;
+    private final DistributionSummary compressedBytes;
+
+    @Autowired
+    public RedisRepository(
+            ReactiveRedisConnectionFactory connectionFactory,
+            MeterRegistry meterRegistry,
+            @Value("${feed.cache.ttl:1m}") Duration ttl,
+            @Value("${feed.scheduler.min-interval:1m}") Duration minPollInterval) {
+        this(connectionFactory, meterRegistry, cacheTtl(ttl, minPollInterval));
+    }
+
+    RedisRepository(ReactiveRedisConnectionFactory connectionFactory, MeterRegistry meterRegistry, Duration ttl) {
+        this.redis = new ReactiveRedisTemplate<>(connectionFactory, RedisSerializationContext
+                .<String, byte[]>newSerializationContext(RedisSerializer.string())
+                .value(RedisSerializer.byteArray())
+                .build());
+        this.ttl = ttl;
+        this.hits = meterRegistry.counter("feed.cache.requests", "result", "hit");
+        this.misses = meterRegistry.counter("feed.cache.requests", "result", "miss");
+        this.rawBytes = meterRegistry.summary("feed.cache.bytes", "form", "raw");
+        this.compressedBytes = meterRegistry.summary("feed.cache.bytes", "form", "compressed");
+    }
+
+    static Duration cacheTtl(Duration ttl, Duration minPollInterval) {
+        if (ttl.compareTo(minPollInterval) > 0) {
+            log.warn("feed.cache.ttl {} longer than feed.scheduler.min-interval {}, using the latter", ttl, minPollInterval);
+            return minPollInterval;
+        }
+        return ttl;
+    }
+
+    /**
+     * @return cached body or empty when not cached (or Redis is unavailable)
+     */
+    public Mono<byte[]> findFeed(URI feed) {
+        return redis
+                .opsForValue()
+                .get(KEY_PREFIX + feed)
+                .map(this::decompress)
+                .doOnNext(body -> hits.increment())
+                .switchIfEmpty(Mono.fromRunnable(misses::increment))
+                .onErrorResume(e -> {
+                    log.warn("Unable to read {} from cache: {}", feed, e.toString());
+                    misses.increment();
+                    return Mono.empty();
+                });
+    }
+
+    public Mono<Boolean> saveFeed(URI feed, byte[] body) {
+        return Mono
+                .fromCallable(() -> compress(body))
+                .flatMap(compressed -> redis.opsForValue().set(KEY_PREFIX + feed, compressed, ttl))
+                .onErrorResume(e -> {
+                    log.warn("Unable to cache {}: {}", feed, e.toString());
+                    return Mono.just(false);
+                });
+    }
+
+    /**
+     * Original length followed by LZ4 block, fast decompressor needs to know the length upfront.
+     */
+    byte[] compress(byte[] raw) {
+        byte[] compressed = new byte[Integer.BYTES + compressor.maxCompressedLength(raw.length)];
+        ByteBuffer.wrap(compressed).putInt(raw.length);
+        int length = compressor.compress(raw, 0, raw.length, compressed, Integer.BYTES, compressed.length - Integer.BYTES);
+        rawBytes.record(raw.length);
+        compressedBytes.record(Integer.BYTES + length);
+        byte[] result = new byte[Integer.BYTES + length];
+        System.arraycopy(compressed, 0, result, 0, result.length);
+        return result;
+    }
 
-    public RedisRepository(ReactiveStringRedisTemplate redis) {
-        this.redis = redis;
+    byte[] decompress(byte[] compressed) {
+        byte[] raw = new byte[ByteBuffer.wrap(compressed).getInt()];
+        decompressor.decompress(compressed, Integer.BYTES, raw, 0, raw.length);
+        return raw;
     }
 
 }
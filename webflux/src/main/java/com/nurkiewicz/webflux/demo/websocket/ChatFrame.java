@@ -0,0 +1,62 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.nio.ByteBuffer;
+
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Chat message encoded to UTF-8 once, when published, instead of once per receiving session.
+ * Payload is <code>sequence number TAB text</code>, so a client can later resume with <code>?since=</code>.
+ * <p>
+ * Every session gets its own {@link WebSocketMessage} wrapping a duplicate of the same read-only bytes:
+ * independent position and limit, no copying. Broadcast and replayed frames alike are slices of {@link RoomLog}'s mapping,
+ * i.e. direct memory: Netty's buffer factory wraps them without copying and writes them to every socket as they are,
+ * without first copying a heap array into a direct buffer per write. Nothing is pooled, so there is nothing to release,
+ * the mapping stays valid as long as any frame refers to it.
+ */
+final class ChatFrame {
+
+    private final long seq;
+    private final ByteBuffer payload;
+
+    private ChatFrame(long seq, ByteBuffer payload) {
+        this.seq = seq;
+        this.payload = payload;
+    }
+
+    static ChatFrame encode(long seq, String text) {
+        return wrap(seq, ByteBuffer.wrap((seq + "\t" + text).getBytes(UTF_8)));
+    }
+
+    static ChatFrame wrap(long seq, ByteBuffer payload) {
+        return new ChatFrame(seq, payload.asReadOnlyBuffer());
+    }
+
+    long seq() {
+        return seq;
+    }
+
+    /**
+     * Decodes message back, without sequence number. Not used on the broadcast path.
+     */
+    String text() {
+        String decoded = UTF_8.decode(payload()).toString();
+        return decoded.substring(decoded.indexOf('\t') + 1);
+    }
+
+    int size() {
+        return payload.remaining();
+    }
+
+    ByteBuffer payload() {
+        return payload.duplicate();
+    }
+
+    WebSocketMessage toMessage(DataBufferFactory bufferFactory) {
+        return new WebSocketMessage(WebSocketMessage.Type.TEXT, bufferFactory.wrap(payload()));
+    }
+
+}
@@ -1,61 +1,134 @@
 package com.nurkiewicz.webflux.demo.websocket;
 
+import java.net.URI;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.testcontainers.shaded.okio.Sink;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import org.springframework.web.reactive.socket.CloseStatus;
 import org.springframework.web.reactive.socket.WebSocketHandler;
 import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.reactive.socket.WebSocketSession;
-import reactor.core.publisher.Sinks;
-
-import java.time.Duration;
+import org.springframework.web.util.UriComponentsBuilder;
 
 /**
- * TODO
- * <ol>
- *     <li>Use single sink to publish incoming messages</li>
- *     <li>Broadcast that sink to all listening subscribers</li>
- *     <li>New subscriber should receive last 5 messages before joining</li>
- *     <li>Add some logging: connecting/disconnecting, how many subscribers</li>
- * </ol>
- * Hint: Sink should hold {@link String}s, not {@link WebSocketMessage}s
+ * Chat with rooms, every message is broadcast only to members of the sender's room.
+ * <p>
+ * Room is taken from <code>/chat?room=name</code>. Without it the first frame may be <code>/join name</code>,
+ * otherwise the session lands in {@link ChatRooms#DEFAULT_ROOM} and its first frame is an ordinary message.
+ * <p>
+ * Every message is sent as <code>sequence number TAB text</code>. New member receives last 5 messages of the room
+ * before joining, or last <code>?last=N</code>, or all since <code>?since=sequence number</code>,
+ * or all stored at or after <code>?after=ISO-8601 instant</code>, replayed from {@link ChatLog}.
+ * Sequence numbers are assigned by the node the session is connected to (see {@link ChatRelay}).
+ * Room names longer than allowed by {@link ChatRooms} close the session with {@link CloseStatus#POLICY_VIOLATION}.
  */
 public class ChatHandler implements WebSocketHandler {
 
 	private static final Logger log = LoggerFactory.getLogger(ChatHandler.class);
 
-	final Sinks.Many<String> broadcast = Sinks.many().replay().limit(5);
+	static final String JOIN = "/join ";
+	static final int DEFAULT_HISTORY = 5;
 
-	/*
-	* 1. wszystko co przyjdzie z przeglądarki wrzucić do sinka
-	* 2. sinka wrzucić do  session
-	* */
+	private final ChatRooms rooms;
+	private final SessionOutbound outbound;
+
+	public ChatHandler(ChatRooms rooms, SessionOutbound outbound) {
+		this.rooms = rooms;
+		this.outbound = outbound;
+	}
 
 	@Override
 	public Mono<Void> handle(WebSocketSession session) {
-		session
-				//zwraca strumień wiadomości przychodzących - flux wiadomości przychodzących
+		//rozpakowuję message do tekstu
+		Flux<String> inbound = session
 				.receive()
-				.doOnSubscribe(s -> log.info("[{}] Got new connection", session.getId()))
-				//rozpakowuję message do tekstu
-				.map(WebSocketMessage::getPayloadAsText)
-				.doOnNext(it->broadcast.tryEmitNext(it))
-				.doOnNext(it-> log.info("[{}] Subscribers count",broadcast.currentSubscriberCount()))
-				//uwaga konieczny subscribe() ponieważ inny strumień otrzymujemy a inny wysyłamy
-				//o subskrypcję strumienia wysyłanego zadba coś co jest po send()
-				//ale ten pierwszy przychodzący musimy obsłużyć sami, dzięki tej subskrypcji eventy przejdą
-				//inny strumień, gdyby nie było go to pierwszy flux który do nas przychodzi jest leniwy
-
-				.subscribe();
-
-		return session
-				//cały strumień odsyłam do przeglądarki, strumień jest "tak jakby zawracany"
-				.send(broadcast.asFlux().map(session::textMessage))
-				.doOnSuccess(v -> log.info("[{}] Done, terminating the connection", session.getId()));
+				.map(WebSocketMessage::getPayloadAsText);
+		return roomFromUri(session.getHandshakeInfo().getUri())
+				.map(room -> chat(session, room, inbound))
+				.orElseGet(() -> inbound
+						.switchOnFirst((first, messages) -> {
+							if (!first.hasValue()) {
+								return Mono.empty();
+							}
+							String text = first.get();
+							if (text.startsWith(JOIN) && !text.substring(JOIN.length()).isBlank()) {
+								return chat(session, text.substring(JOIN.length()).trim(), messages.skip(1));
+							}
+							return chat(session, ChatRooms.DEFAULT_ROOM, messages);
+						})
+						.then());
+	}
+
+	static Optional<String> roomFromUri(URI uri) {
+		return queryParam(uri, "room").filter(room -> !room.isBlank());
+	}
+
+	private static Optional<String> queryParam(URI uri, String name) {
+		return Optional.ofNullable(UriComponentsBuilder.fromUri(uri).build().getQueryParams().getFirst(name));
+	}
+
+	/**
+	 * @return empty if the parameter is missing or malformed, history then falls back to the last {@link #DEFAULT_HISTORY} messages
+	 */
+	private static <T> Optional<T> queryParam(URI uri, String name, Function<String, T> parser) {
+		return queryParam(uri, name).flatMap(value -> {
+			try {
+				return Optional.of(parser.apply(value));
+			} catch (RuntimeException e) {
+				log.debug("Ignoring malformed {}={}", name, value);
+				return Optional.empty();
+			}
+		});
+	}
+
+	static Flux<ChatFrame> history(ChatRoom room, URI uri, UnaryOperator<Flux<ChatFrame>> liveQueue) {
+		Optional<Instant> after = queryParam(uri, "after", Instant::parse);
+		if (after.isPresent()) {
+			return room.after(after.get(), liveQueue);
+		}
+		Optional<Long> since = queryParam(uri, "since", Long::parseLong).filter(seq -> seq >= 1);
+		if (since.isPresent()) {
+			return room.since(since.get(), liveQueue);
+		}
+		int last = queryParam(uri, "last", Integer::parseInt).filter(count -> count >= 0).orElse(DEFAULT_HISTORY);
+		return room.last(last, liveQueue);
+	}
 
+	private Mono<Void> chat(WebSocketSession session, String name, Flux<String> inbound) {
+		if (!rooms.validName(name)) {
+			log.warn("[{}] Room name too long", session.getId());
+			return session.close(CloseStatus.POLICY_VIOLATION.withReason("Room name too long"));
+		}
+		return Mono.usingWhen(
+				//opens room log on first join
+				Mono.fromSupplier(() -> rooms.join(name)).subscribeOn(Schedulers.boundedElastic()),
+				room -> {
+					log.info("[{}] Joined room {} with {} members", session.getId(), name, room.members());
+					//przychodzący i wysyłany to dwa osobne strumienie, oba żyją tyle co sesja
+					//one message at a time, a flooding session waits for the appender instead of queueing without limit
+					Mono<Void> receiving = inbound
+							.concatMap(room::publish)
+							.then();
+					//slow member gets its own bounded queue instead of holding back the room, history is read on demand
+					Flux<ChatFrame> frames = history(room, session.getHandshakeInfo().getUri(), live -> outbound.bound("chat", session.getId(), live, ChatFrame::size));
+					return outbound
+							.send(session, frames.map(frame -> frame.toMessage(session.bufferFactory())))
+							.and(receiving);
+				},
+				room -> Mono
+						.fromRunnable(() -> {
+							rooms.leave(room);
+							log.info("[{}] Done, left room {}", session.getId(), name);
+						})
+						.subscribeOn(Schedulers.boundedElastic()));
 	}
 
 }
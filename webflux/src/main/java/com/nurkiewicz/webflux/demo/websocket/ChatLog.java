@@ -0,0 +1,158 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Persistent history of every chat room, one {@link RoomLog} directory per room under <code>chat.log.dir</code>.
+ * <p>
+ * Directory is locked for the lifetime of the application. Two nodes appending to the same room files would overwrite
+ * each other's records, so a node started on a host with <code>chat.log.dir</code> already in use fails to start.
+ * <p>
+ * Every room keeps at most <code>chat.log.max-segments</code> segments, none older than <code>chat.log.retention</code>.
+ * Rooms that are not open are swept by {@link ChatRooms}, directory of a room whose history expired entirely is deleted.
+ * <p>
+ * Once opened, a room's {@link RoomLog} is kept (and reused when the room is reopened) for the lifetime of the application.
+ * Mappings of a log are released only by garbage collection, after the last frame read from them,
+ * so reopening would map the same segments again and again. Mappings are bounded by rooms times <code>chat.log.max-segments</code>.
+ */
+@Component
+public class ChatLog {
+
+    private final Path dir;
+    private final int segmentSize;
+    private final Duration retention;
+    private final int maxSegments;
+    private final FileLock lock;
+    private final Map<String, RoomLog> logs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ChatLog(
+            @Value("${chat.log.dir:${java.io.tmpdir}/chat-log}") String dir,
+            @Value("${chat.log.segment-size:16MB}") DataSize segmentSize,
+            @Value("${chat.log.retention:7d}") Duration retention,
+            @Value("${chat.log.max-segments:16}") int maxSegments) {
+        this.dir = Path.of(dir);
+        this.segmentSize = Math.toIntExact(segmentSize.toBytes());
+        this.retention = retention;
+        this.maxSegments = maxSegments;
+        this.lock = lock(this.dir);
+    }
+
+    ChatLog(String dir, DataSize segmentSize) {
+        this(dir, segmentSize, Duration.ofMillis(Long.MAX_VALUE), Integer.MAX_VALUE);
+    }
+
+    private static FileLock lock(Path dir) {
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(dir);
+            channel = FileChannel.open(dir.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                close(channel);
+                throw new IllegalStateException(dir + " is used by another process, every node needs its own chat.log.dir");
+            }
+            return lock;
+        } catch (OverlappingFileLockException e) {
+            close(channel);
+            throw new IllegalStateException(dir + " is already used by this process, every node needs its own chat.log.dir", e);
+        } catch (IOException e) {
+            close(channel);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        close(lock.channel());
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            //releases the lock as well
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Blocking when the room is opened for the first time, must not be called on an event loop.
+     */
+    RoomLog open(String room) {
+        return logs.computeIfAbsent(room, key -> new RoomLog(directory(key), segmentSize, retention, maxSegments));
+    }
+
+    /**
+     * Applies retention to a room that is not open, see {@link RoomLog#expire(Path, Duration, int)}.
+     * Log opened before is kept, see {@link RoomLog#expireIdle()}.
+     */
+    void expire(String room) {
+        RoomLog opened = logs.get(room);
+        if (opened != null) {
+            opened.expireIdle();
+            return;
+        }
+        try {
+            RoomLog.expire(directory(room), retention, maxSegments);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return names of all rooms with history, open or not
+     */
+    List<String> rooms() {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list
+                    .filter(Files::isDirectory)
+                    .map(directory -> directory.getFileName().toString())
+                    .flatMap(ChatLog::decode)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Room names come from clients, directory name is their URL-safe Base64, so it can't escape {@link #dir}.
+     */
+    private Path directory(String room) {
+        return dir.resolve(Base64.getUrlEncoder().withoutPadding().encodeToString(room.getBytes(UTF_8)));
+    }
+
+    private static Stream<String> decode(String directory) {
+        try {
+            return Stream.of(new String(Base64.getUrlDecoder().decode(directory), UTF_8));
+        } catch (IllegalArgumentException e) {
+            return Stream.empty();
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.ReactiveSubscription;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Connects chat rooms of all nodes through Redis pub/sub, so members connected to different nodes can talk.
+ * <p>
+ * Messages published locally are batched (up to <code>chat.relay.batch-size</code> messages or
+ * <code>chat.relay.batch-window</code>) and sent as one Redis message per room, tagged with this node's id.
+ * Each node subscribes only to channels of rooms it has local members in, over a single shared connection,
+ * and ignores its own batches: local members already got them directly.
+ * <p>
+ * Every node appends relayed messages to its own {@link RoomLog}, only while it has local members in the room,
+ * so sequence numbers are local to a node: <code>?since=</code> is meaningful only when reconnecting to the same node,
+ * and history of a node may miss messages published while it had no members in the room.
+ * <p>
+ * Metrics: <code>chat.relay.batches</code> and <code>chat.relay.messages</code> tagged with <code>direction=out|in</code>,
+ * <code>chat.relay.skipped</code> for own batches received back, <code>chat.relay.dropped</code> for messages never relayed
+ * because more than <code>chat.relay.max-pending</code> batches were waiting for a slow Redis (oldest are dropped).
+ */
+@Component
+public class ChatRelay implements ChatRooms.Relay {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatRelay.class);
+
+    private static final String CHANNEL_PREFIX = "chat:room:";
+
+    private static final RedisSerializationContext.SerializationPair<String> STRING =
+            RedisSerializationContext.SerializationPair.fromSerializer(RedisSerializer.string());
+
+    private final ChatRooms chatRooms;
+    private final ReactiveRedisTemplate<String, String> redis;
+    private final ReactiveRedisMessageListenerContainer listener;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final String nodeId;
+    private final int batchSize;
+    private final Duration batchWindow;
+    private final int maxPendingBatches;
+    /**
+     * Serialized by {@link Flux#create}: concurrent publishers enqueue into a lock-free queue, one of them drains it,
+     * nobody spins waiting for another.
+     */
+    private volatile FluxSink<Outgoing> outgoing;
+    private final Map<String, Disposable> subscriptions = new ConcurrentHashMap<>();
+    private final Counter batchesOut;
+    private final Counter messagesOut;
+    private final Counter batchesIn;
+    private final Counter messagesIn;
+    private final Counter skipped;
+    private final Counter dropped;
+    private Disposable publishing;
+
+    public ChatRelay(
+            ChatRooms chatRooms,
+            ReactiveRedisConnectionFactory connectionFactory,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${chat.relay.enabled:true}") boolean enabled,
+            @Value("${chat.relay.node-id:}") String nodeId,
+            @Value("${chat.relay.batch-size:100}") int batchSize,
+            @Value("${chat.relay.batch-window:10ms}") Duration batchWindow,
+            @Value("${chat.relay.max-pending:1000}") int maxPendingBatches) {
+        this.chatRooms = chatRooms;
+        this.redis = new ReactiveRedisTemplate<>(connectionFactory, RedisSerializationContext.fromSerializer(RedisSerializer.string()));
+        this.listener = new ReactiveRedisMessageListenerContainer(connectionFactory);
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.nodeId = nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+        this.batchSize = batchSize;
+        this.batchWindow = batchWindow;
+        this.maxPendingBatches = maxPendingBatches;
+        this.batchesOut = meterRegistry.counter("chat.relay.batches", "direction", "out");
+        this.messagesOut = meterRegistry.counter("chat.relay.messages", "direction", "out");
+        this.batchesIn = meterRegistry.counter("chat.relay.batches", "direction", "in");
+        this.messagesIn = meterRegistry.counter("chat.relay.messages", "direction", "in");
+        this.skipped = meterRegistry.counter("chat.relay.skipped");
+        this.dropped = meterRegistry.counter("chat.relay.dropped");
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        log.info("Relaying chat rooms through Redis as node {}", nodeId);
+        publishing = Flux
+                .<Outgoing>create(sink -> outgoing = sink)
+                //bufferTimeout() requests unbounded, messages never wait in the sink, only as batches below
+                .bufferTimeout(batchSize, batchWindow)
+                .onBackpressureBuffer(
+                        maxPendingBatches,
+                        batch -> {
+                            dropped.increment(batch.size());
+                            log.warn("Too many batches waiting for Redis, dropping oldest batch of {}", batch.size());
+                        },
+                        BufferOverflowStrategy.DROP_OLDEST)
+                .concatMapIterable(this::byRoom)
+                .flatMap(this::send, 16)
+                .subscribe();
+        chatRooms.relay(this);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        chatRooms.relay(ChatRooms.Relay.NONE);
+        publishing.dispose();
+        subscriptions.values().forEach(Disposable::dispose);
+        listener.destroy();
+    }
+
+    /**
+     * Called while {@link ChatRooms} holds the room's bin, only registers the subscription.
+     * Subscribing to the Redis channel happens on {@link Schedulers#boundedElastic()}, outside of that lock.
+     */
+    @Override
+    public void opened(String room) {
+        subscriptions.computeIfAbsent(room, key -> listener
+                .receive(List.of(ChannelTopic.of(CHANNEL_PREFIX + key)), STRING, STRING)
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(ReactiveSubscription.Message::getMessage)
+                .concatMap(this::received)
+                .subscribe(null, e -> log.warn("Unable to receive messages of room {}: {}", key, e.toString())));
+    }
+
+    @Override
+    public void closed(String room) {
+        Disposable subscription = subscriptions.remove(room);
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    @Override
+    public void publish(String room, String message) {
+        outgoing.next(new Outgoing(room, message));
+    }
+
+    /**
+     * @return rooms this node currently receives messages of
+     */
+    public Set<String> subscribedRooms() {
+        return Set.copyOf(subscriptions.keySet());
+    }
+
+    private List<Batch> byRoom(List<Outgoing> messages) {
+        Map<String, List<String>> rooms = new LinkedHashMap<>();
+        for (Outgoing message : messages) {
+            rooms.computeIfAbsent(message.room, room -> new ArrayList<>()).add(message.text);
+        }
+        List<Batch> batches = new ArrayList<>(rooms.size());
+        rooms.forEach((room, texts) -> batches.add(new Batch(nodeId, room, texts)));
+        return batches;
+    }
+
+    private Mono<Long> send(Batch batch) {
+        return Mono
+                .fromCallable(() -> objectMapper.writeValueAsString(batch))
+                .flatMap(json -> redis.convertAndSend(CHANNEL_PREFIX + batch.getRoom(), json))
+                .doOnNext(receivers -> {
+                    batchesOut.increment();
+                    messagesOut.increment(batch.getMessages().size());
+                })
+                .onErrorResume(e -> {
+                    log.warn("Unable to relay {} messages of room {}: {}", batch.getMessages().size(), batch.getRoom(), e.toString());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> received(String json) {
+        Batch batch;
+        try {
+            batch = objectMapper.readValue(json, Batch.class);
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring malformed relayed batch: {}", e.toString());
+            return Mono.empty();
+        }
+        if (nodeId.equals(batch.getOrigin())) {
+            skipped.increment();
+            return Mono.empty();
+        }
+        batchesIn.increment();
+        messagesIn.increment(batch.getMessages().size());
+        return Mono
+                .justOrEmpty(chatRooms.find(batch.getRoom()))
+                .flatMapMany(room -> Flux.fromIterable(batch.getMessages()).concatMap(room::deliver))
+                .then();
+    }
+
+    private static class Outgoing {
+
+        private final String room;
+        private final String text;
+
+        Outgoing(String room, String text) {
+            this.room = room;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Single Redis message: several messages of one room, published on <code>origin</code> node.
+     */
+    static class Batch {
+
+        private final String origin;
+        private final String room;
+        private final List<String> messages;
+
+        @JsonCreator
+        Batch(
+                @JsonProperty("origin") String origin,
+                @JsonProperty("room") String room,
+                @JsonProperty("messages") List<String> messages) {
+            this.origin = origin;
+            this.room = room;
+            this.messages = messages;
+        }
+
+        public String getOrigin() {
+            return origin;
+        }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public List<String> getMessages() {
+            return messages;
+        }
+    }
+
+}
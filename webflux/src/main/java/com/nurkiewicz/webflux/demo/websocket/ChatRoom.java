@@ -0,0 +1,183 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.time.Instant;
+import java.util.function.LongUnaryOperator;
+import java.util.function.UnaryOperator;
+
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Single chat room with its own sink, so publishing to one room never contends with (or reaches) members of another.
+ * Every message is first appended to the room's {@link RoomLog}, new members replay history from there.
+ * Membership is counted by {@link ChatRooms}, which creates and reclaims rooms.
+ * <p>
+ * Appending (memory-mapped I/O, occasionally mapping a new segment) and fan-out to members run on <code>appender</code>,
+ * a single thread shared by all rooms, never on the event loop of the publishing session.
+ */
+class ChatRoom {
+
+    private final String name;
+    private final RoomLog log;
+    private final ChatRooms.Relay relay;
+    private final Scheduler appender;
+    private final Sinks.Many<ChatFrame> live = Sinks.many().multicast().directBestEffort();
+
+    /**
+     * Guarded by {@link java.util.concurrent.ConcurrentHashMap#compute} in {@link ChatRooms}.
+     */
+    private volatile int members;
+
+    /**
+     * Set when the last member left. A room reopened under the same name is a new instance sharing the same {@link RoomLog},
+     * stale references (e.g. relayed messages racing with reclaim) must not append to it anymore.
+     */
+    private boolean closed;
+
+    ChatRoom(String name, RoomLog log, ChatRooms.Relay relay, Scheduler appender) {
+        this.name = name;
+        this.log = log;
+        this.relay = relay;
+        this.appender = appender;
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * Encodes message once, for all members. Completes once the message is appended and broadcast,
+     * so a session publishing with <code>concatMap</code> has at most one message waiting for <code>appender</code>.
+     * The lock keeps log order, broadcast order and order relayed to other nodes the same,
+     * it is only contended when <code>appender</code> runs tasks inline (tests).
+     */
+    Mono<Void> publish(String message) {
+        return Mono.<Void>fromRunnable(() -> append(message, true)).subscribeOn(appender);
+    }
+
+    /**
+     * Like {@link #publish(String)}, but only to local members. Used for messages published on other nodes.
+     * Ignored once the room was reclaimed.
+     */
+    Mono<Void> deliver(String message) {
+        return Mono.<Void>fromRunnable(() -> append(message, false)).subscribeOn(appender);
+    }
+
+    private synchronized void append(String message, boolean local) {
+        if (closed) {
+            return;
+        }
+        live.tryEmitNext(log.append(message));
+        if (local) {
+            relay.publish(name, message);
+        }
+    }
+
+    /**
+     * Last <code>count</code> messages followed by everything published afterwards.
+     */
+    Flux<ChatFrame> last(int count, UnaryOperator<Flux<ChatFrame>> liveQueue) {
+        return replayThenLive(lastSeq -> lastSeq - count + 1, liveQueue);
+    }
+
+    /**
+     * Messages from sequence number <code>seq</code> onwards, followed by everything published afterwards.
+     */
+    Flux<ChatFrame> since(long seq, UnaryOperator<Flux<ChatFrame>> liveQueue) {
+        return replayThenLive(lastSeq -> seq, liveQueue);
+    }
+
+    /**
+     * Messages stored at or after <code>time</code>, followed by everything published afterwards.
+     */
+    Flux<ChatFrame> after(Instant time, UnaryOperator<Flux<ChatFrame>> liveQueue) {
+        return replayThenLive(lastSeq -> log.seqAt(time), liveQueue);
+    }
+
+    /**
+     * Live messages are subscribed to atomically with reading last sequence number, so nothing is lost or duplicated
+     * between history and live broadcast. They go through <code>liveQueue</code> (see {@link SessionOutbound#bound}) right away,
+     * so messages arriving during a long replay are bounded (and dropped or evicted) like any other backlog of the session.
+     * History itself is read from the log only as fast as the session consumes it.
+     */
+    private Flux<ChatFrame> replayThenLive(LongUnaryOperator from, UnaryOperator<Flux<ChatFrame>> liveQueue) {
+        return Flux.defer(() -> {
+            long upTo;
+            LiveConnection connection = new LiveConnection();
+            synchronized (this) {
+                upTo = log.lastSeq();
+                liveQueue.apply(live.asFlux()).subscribe(connection);
+            }
+            return Flux
+                    .concat(
+                            log.range(Math.max(from.applyAsLong(upTo), 1), upTo),
+                            connection.queued())
+                    .doFinally(signal -> connection.dispose());
+        });
+    }
+
+    int members() {
+        return members;
+    }
+
+    ChatRoom join() {
+        members++;
+        return this;
+    }
+
+    /**
+     * @return <code>true</code> if this was the last member and the room should be reclaimed
+     */
+    boolean leave() {
+        members--;
+        if (members == 0) {
+            synchronized (this) {
+                closed = true;
+                live.tryEmitComplete();
+            }
+            //after appends already queued, log is not appended to concurrently
+            appender.schedule(log::close);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Connected before replay, consumed only after it. Holds at most one message besides the bounded <code>liveQueue</code>,
+     * further demand is forwarded upstream once the session subscribes.
+     * Unlike <code>publish()</code>, messages arriving while there is no subscriber yet are kept, not dropped.
+     */
+    private static class LiveConnection extends BaseSubscriber<ChatFrame> {
+
+        private final Sinks.Many<ChatFrame> handoff = Sinks.many().unicast().onBackpressureBuffer();
+
+        Flux<ChatFrame> queued() {
+            return handoff.asFlux().doOnRequest(this::request);
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            subscription.request(1);
+        }
+
+        @Override
+        protected void hookOnNext(ChatFrame frame) {
+            handoff.tryEmitNext(frame);
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            handoff.tryEmitComplete();
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            handoff.tryEmitError(throwable);
+        }
+    }
+
+}
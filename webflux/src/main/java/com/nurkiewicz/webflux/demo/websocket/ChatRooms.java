@@ -0,0 +1,193 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Registry of chat rooms, created on first {@link #join(String)} and reclaimed when the last member {@link #leave(ChatRoom)}s.
+ * <p>
+ * {@link ConcurrentHashMap} locks individual bins, so joining and leaving different rooms proceeds in parallel.
+ * Once joined, a member publishes to its room directly, the registry is not touched per message.
+ * History of reclaimed rooms stays in {@link ChatLog} and is picked up when the room is opened again.
+ * {@link Relay} learns about every room opened and closed on this node, and about every message published locally.
+ * <p>
+ * Joining and leaving open and sweep log files, they block and must not run on an event loop.
+ * Messages are appended on a single <code>chat-appender</code> thread, see {@link ChatRoom#publish(String)}.
+ * Room names are limited to <code>chat.room.max-name-bytes</code> in UTF-8, every <code>chat.log.sweep-interval</code>
+ * history of rooms not open is trimmed, see {@link ChatLog}.
+ */
+@Component
+public class ChatRooms {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatRooms.class);
+
+    static final String DEFAULT_ROOM = "lobby";
+
+    private final ConcurrentHashMap<String, ChatRoom> rooms = new ConcurrentHashMap<>();
+    private final ChatLog chatLog;
+    private final int maxNameBytes;
+    private final Duration sweepInterval;
+    private final Scheduler appender;
+    private volatile Relay relay = Relay.NONE;
+    private Disposable sweeping;
+
+    @Autowired
+    public ChatRooms(
+            ChatLog chatLog,
+            @Value("${chat.room.max-name-bytes:128}") int maxNameBytes,
+            @Value("${chat.log.sweep-interval:1h}") Duration sweepInterval) {
+        this(chatLog, maxNameBytes, sweepInterval, Schedulers.newSingle("chat-appender"));
+    }
+
+    /**
+     * Appends on the calling thread.
+     */
+    ChatRooms(ChatLog chatLog) {
+        this(chatLog, 128, Duration.ofHours(1), Schedulers.immediate());
+    }
+
+    ChatRooms(ChatLog chatLog, int maxNameBytes, Duration sweepInterval, Scheduler appender) {
+        this.chatLog = chatLog;
+        this.maxNameBytes = maxNameBytes;
+        this.sweepInterval = sweepInterval;
+        this.appender = appender;
+    }
+
+    @PostConstruct
+    public void init() {
+        sweeping = Flux
+                .interval(sweepInterval, Schedulers.boundedElastic())
+                .onBackpressureDrop()
+                .concatMap(tick -> Mono
+                        .fromRunnable(this::sweep)
+                        .onErrorResume(e -> {
+                            log.warn("Unable to sweep chat log: {}", e.toString());
+                            return Mono.empty();
+                        }), 1)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (sweeping != null) {
+            sweeping.dispose();
+        }
+        appender.dispose();
+    }
+
+    /**
+     * Applies retention to every room that is not open. Holding the room's bin while sweeping means it can't be opened meanwhile.
+     */
+    void sweep() {
+        for (String name : chatLog.rooms()) {
+            rooms.compute(name, (key, room) -> {
+                if (room == null) {
+                    chatLog.expire(key);
+                }
+                return room;
+            });
+        }
+    }
+
+    boolean validName(String name) {
+        return name.getBytes(UTF_8).length <= maxNameBytes;
+    }
+
+    void relay(Relay relay) {
+        this.relay = relay;
+    }
+
+    ChatRoom join(String name) {
+        if (!validName(name)) {
+            throw new IllegalArgumentException("Room name longer than " + maxNameBytes + " bytes");
+        }
+        return rooms.compute(name, (key, room) -> {
+            if (room == null) {
+                log.debug("Opening room {}", key);
+                room = new ChatRoom(key, chatLog.open(key), relay, appender);
+                relay.opened(key);
+            }
+            return room.join();
+        });
+    }
+
+    void leave(ChatRoom room) {
+        rooms.computeIfPresent(room.name(), (key, current) -> {
+            if (current != room) {
+                return current;
+            }
+            if (room.leave()) {
+                log.debug("Closing empty room {}", key);
+                relay.closed(key);
+                return null;
+            }
+            return room;
+        });
+    }
+
+    /**
+     * @return room with local members, never creates one
+     */
+    Optional<ChatRoom> find(String name) {
+        return Optional.ofNullable(rooms.get(name));
+    }
+
+    public int size() {
+        return rooms.size();
+    }
+
+    /**
+     * @return number of members of given room, <code>0</code> if there is no such room
+     */
+    public int members(String name) {
+        ChatRoom room = rooms.get(name);
+        return room == null ? 0 : room.members();
+    }
+
+    /**
+     * @return snapshot of local members of every open room
+     */
+    public SortedMap<String, Integer> members() {
+        SortedMap<String, Integer> members = new TreeMap<>();
+        rooms.forEach((name, room) -> members.put(name, room.members()));
+        return members;
+    }
+
+    /**
+     * Spreads rooms across nodes, see {@link ChatRelay}. Callbacks about a given room are never concurrent.
+     */
+    interface Relay {
+
+        Relay NONE = new Relay() {
+        };
+
+        default void opened(String room) {
+        }
+
+        default void closed(String room) {
+        }
+
+        default void publish(String room, String message) {
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Groups messages sent to a single session in quick succession, so they are written to the socket in one burst,
+ * with one flush (and one <code>write</code> syscall) instead of one per message. Frames themselves stay as they are.
+ * <p>
+ * Batch is emitted <code>websocket.coalesce.window</code> after its first message, or as soon as it reaches
+ * <code>websocket.coalesce.max-bytes</code>. Messages per batch are reported as <code>websocket.coalesce.messages</code>
+ * (flush reduction), time the first message of each batch waited as <code>websocket.coalesce.delay</code> (added latency).
+ * Disabled by default.
+ */
+@Component
+public class Coalescer {
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Duration window;
+    private final long maxBytes;
+    private final Scheduler scheduler;
+
+    @Autowired
+    public Coalescer(
+            MeterRegistry meterRegistry,
+            @Value("${websocket.coalesce.enabled:false}") boolean enabled,
+            @Value("${websocket.coalesce.window:5ms}") Duration window,
+            @Value("${websocket.coalesce.max-bytes:16KB}") DataSize maxBytes) {
+        this(meterRegistry, enabled, window, maxBytes.toBytes(), Schedulers.parallel());
+    }
+
+    Coalescer(MeterRegistry meterRegistry, boolean enabled, Duration window, long maxBytes, Scheduler scheduler) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.window = window;
+        this.maxBytes = maxBytes;
+        this.scheduler = scheduler;
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    <T> Flux<List<T>> coalesce(String endpoint, Flux<T> messages, ToIntFunction<T> size) {
+        DistributionSummary batchSize = meterRegistry.summary("websocket.coalesce.messages", "endpoint", endpoint);
+        Timer delay = meterRegistry.timer("websocket.coalesce.delay", "endpoint", endpoint);
+        return Flux.create(sink -> {
+            Batch<T> batch = new Batch<>();
+            Runnable emit = () -> {
+                List<T> ready = batch.take();
+                if (ready != null) {
+                    batchSize.record(ready.size());
+                    delay.record(scheduler.now(TimeUnit.NANOSECONDS) - batch.startedNanos, TimeUnit.NANOSECONDS);
+                    sink.next(ready);
+                }
+            };
+            Disposable upstream = messages.subscribe(
+                    message -> {
+                        synchronized (batch) {
+                            if (batch.messages.isEmpty()) {
+                                batch.startedNanos = scheduler.now(TimeUnit.NANOSECONDS);
+                                batch.timer = scheduler.schedule(() -> {
+                                    synchronized (batch) {
+                                        emit.run();
+                                    }
+                                }, window.toNanos(), TimeUnit.NANOSECONDS);
+                            }
+                            batch.messages.add(message);
+                            batch.bytes += size.applyAsInt(message);
+                            if (batch.bytes >= maxBytes) {
+                                batch.timer.dispose();
+                                emit.run();
+                            }
+                        }
+                    },
+                    sink::error,
+                    () -> {
+                        synchronized (batch) {
+                            if (batch.timer != null) {
+                                batch.timer.dispose();
+                            }
+                            emit.run();
+                        }
+                        sink.complete();
+                    });
+            sink.onDispose(() -> {
+                upstream.dispose();
+                synchronized (batch) {
+                    if (batch.timer != null) {
+                        batch.timer.dispose();
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Guarded by its own monitor, timer and upstream emit from different threads.
+     */
+    private static class Batch<T> {
+
+        private List<T> messages = new ArrayList<>();
+        private long bytes;
+        private long startedNanos;
+        private Disposable timer;
+
+        /**
+         * @return messages collected so far, <code>null</code> if none
+         */
+        List<T> take() {
+            if (messages.isEmpty()) {
+                return null;
+            }
+            List<T> ready = messages;
+            messages = new ArrayList<>();
+            bytes = 0;
+            return ready;
+        }
+    }
+
+}
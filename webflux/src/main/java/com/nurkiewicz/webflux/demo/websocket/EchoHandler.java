@@ -10,28 +10,57 @@ import reactor.core.publisher.Mono;
 
 import java.time.Duration;
 
+/**
+ * Sends every text and binary frame back to the sender, text upper-cased as it always was.
+ * <p>
+ * Binary frames, and text frames with <code>websocket.echo.upper-case</code> turned off, are relayed as is:
+ * retained inbound {@link org.springframework.core.io.buffer.DataBuffer} becomes the outbound one, never decoded nor copied.
+ * Per-message logging and artificial delay (formerly always on, one second) are opt-in, through <code>websocket.echo.*</code>.
+ */
 public class EchoHandler implements WebSocketHandler {
 
 	private static final Logger log = LoggerFactory.getLogger(EchoHandler.class);
 
+	private final boolean logMessages;
+	private final Duration delay;
+	private final boolean upperCase;
+
+	public EchoHandler(boolean logMessages, Duration delay, boolean upperCase) {
+		this.logMessages = logMessages;
+		this.delay = delay;
+		this.upperCase = upperCase;
+	}
+
 	@Override
 	public Mono<Void> handle(WebSocketSession session) {
 		Flux<WebSocketMessage> outMessages = session
 				//zwraca strumień wiadomości przychodzących - flux wiadomości przychodzących
 				.receive()
-				.doOnSubscribe(s -> log.info("[{}] Got new connection", session.getId()))
-				//rozpakowuję message do tekstu
-				.map(WebSocketMessage::getPayloadAsText)
-				.doOnNext(x -> log.info("[{}] Received: '{}'", session.getId(), x))
-				.map(String::toUpperCase)
-				.doOnNext(x -> log.info("[{}] Sending '{}'", session.getId(), x))
-				.map(session::textMessage)
-				//sztuczne opóxnienie
-				.delaySequence(Duration.ofSeconds(1));
+				.doOnSubscribe(s -> log.debug("[{}] Got new connection", session.getId()))
+				.filter(message -> message.getType() == WebSocketMessage.Type.TEXT || message.getType() == WebSocketMessage.Type.BINARY)
+				//inbound payload is released once handled, sending happens later
+				.map(message -> reply(session, message.retain()));
+		if (logMessages) {
+			outMessages = outMessages.doOnNext(message -> log.info("[{}] Sending {} frame of {}B", session.getId(), message.getType(), message.getPayload().readableByteCount()));
+		}
+		if (!delay.isZero()) {
+			//sztuczne opóxnienie
+			outMessages = outMessages.delaySequence(delay);
+		}
 		return session
 				//cały strumień odsyłam do przeglądarki, strumień jest "tak jakby zawracany"
-				.send(outMessages)
-				.doOnSuccess(v -> log.info("[{}] Done, terminating the connection", session.getId()));
+				.send(outMessages.doOnDiscard(WebSocketMessage.class, WebSocketMessage::release))
+				.doOnSuccess(v -> log.debug("[{}] Done, terminating the connection", session.getId()));
+	}
+
+	private WebSocketMessage reply(WebSocketSession session, WebSocketMessage message) {
+		if (upperCase && message.getType() == WebSocketMessage.Type.TEXT) {
+			//decoding and encoding again, only when asked to
+			String text = message.getPayloadAsText();
+			message.release();
+			return session.textMessage(text.toUpperCase());
+		}
+		return new WebSocketMessage(message.getType(), message.getPayload());
 	}
 
 }
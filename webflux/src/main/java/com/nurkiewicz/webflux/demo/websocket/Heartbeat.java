@@ -0,0 +1,203 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.HandshakeInfo;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+/**
+ * Keeps only live WebSocket sessions around.
+ * <p>
+ * Every <code>websocket.heartbeat.interval</code> a ping frame is sent next to regular messages, past {@link SessionOutbound} queue,
+ * so a lagging session is pinged as well. Client answers with a pong, browsers do it on their own.
+ * Session that sent nothing, not even a pong, for <code>websocket.heartbeat.idle-timeout</code> is closed with {@link CloseStatus#GOING_AWAY}.
+ * Half-open connection (peer gone without closing TCP) never answers, so it is reaped as well,
+ * together with every subscription of its handler. Reaped sessions are counted as <code>websocket.sessions.reaped</code>.
+ * <p>
+ * Sessions are admitted and counted by {@link Presence}.
+ */
+@Component
+public class Heartbeat {
+
+    private static final Logger log = LoggerFactory.getLogger(Heartbeat.class);
+
+    private final Presence presence;
+    private final Duration interval;
+    private final Duration idleTimeout;
+    private final Scheduler scheduler;
+    private final Counter reaped;
+
+    @Autowired
+    public Heartbeat(
+            Presence presence,
+            MeterRegistry meterRegistry,
+            @Value("${websocket.heartbeat.interval:15s}") Duration interval,
+            @Value("${websocket.heartbeat.idle-timeout:45s}") Duration idleTimeout) {
+        this(presence, meterRegistry, interval, idleTimeout, Schedulers.parallel());
+    }
+
+    Heartbeat(Presence presence, MeterRegistry meterRegistry, Duration interval, Duration idleTimeout, Scheduler scheduler) {
+        this.presence = presence;
+        this.interval = interval;
+        this.idleTimeout = idleTimeout;
+        this.scheduler = scheduler;
+        this.reaped = meterRegistry.counter("websocket.sessions.reaped");
+    }
+
+    /**
+     * @param endpoint name of sessions handled by <code>handler</code>, see {@link Presence#sessions()}
+     */
+    WebSocketHandler decorate(String endpoint, WebSocketHandler handler) {
+        return session -> {
+            if (!presence.enter(endpoint)) {
+                log.warn("Rejecting session {} of {}, too many sessions", session.getId(), endpoint);
+                return session.close(CloseStatus.SERVICE_OVERLOAD.withReason("Too many sessions"));
+            }
+            LiveSession live = new LiveSession(session);
+            //whichever finishes first cancels the other one
+            return Mono
+                    .firstWithSignal(handler.handle(live), reapWhenIdle(live))
+                    .doFinally(signal -> presence.leave(endpoint));
+        };
+    }
+
+    private Mono<Void> reapWhenIdle(LiveSession session) {
+        return Flux
+                .interval(interval, scheduler)
+                .filter(tick -> session.idle() >= idleTimeout.toMillis())
+                .next()
+                .flatMap(tick -> {
+                    log.info("Closing idle session {}, nothing received for {}ms", session.getId(), session.idle());
+                    reaped.increment();
+                    return session.close(CloseStatus.GOING_AWAY.withReason("Idle"));
+                });
+    }
+
+    private Flux<WebSocketMessage> pings(WebSocketSession session) {
+        return Flux
+                .interval(interval, scheduler)
+                .map(tick -> session.pingMessage(factory -> factory.wrap(new byte[0])));
+    }
+
+    /**
+     * Notes every inbound frame and consumes pongs, adds pings to outbound messages.
+     */
+    private class LiveSession implements WebSocketSession {
+
+        private final WebSocketSession delegate;
+        private volatile long lastSeen;
+
+        LiveSession(WebSocketSession delegate) {
+            this.delegate = delegate;
+            this.lastSeen = now();
+        }
+
+        long idle() {
+            return now() - lastSeen;
+        }
+
+        private long now() {
+            return scheduler.now(TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public Flux<WebSocketMessage> receive() {
+            return delegate
+                    .receive()
+                    .doOnNext(message -> lastSeen = now())
+                    .filter(message -> message.getType() != WebSocketMessage.Type.PONG);
+        }
+
+        @Override
+        public Mono<Void> send(Publisher<WebSocketMessage> messages) {
+            Sinks.Empty<Void> done = Sinks.empty();
+            //pings stop once messages are over, otherwise send() would never complete
+            return delegate.send(Flux.merge(
+                    Flux.from(messages).doFinally(signal -> done.tryEmitEmpty()),
+                    pings(delegate).takeUntilOther(done.asMono())));
+        }
+
+        @Override
+        public String getId() {
+            return delegate.getId();
+        }
+
+        @Override
+        public HandshakeInfo getHandshakeInfo() {
+            return delegate.getHandshakeInfo();
+        }
+
+        @Override
+        public DataBufferFactory bufferFactory() {
+            return delegate.bufferFactory();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return delegate.getAttributes();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return delegate.isOpen();
+        }
+
+        @Override
+        public Mono<Void> close(CloseStatus status) {
+            return delegate.close(status);
+        }
+
+        @Override
+        public Mono<CloseStatus> closeStatus() {
+            return delegate.closeStatus();
+        }
+
+        @Override
+        public WebSocketMessage textMessage(String payload) {
+            return delegate.textMessage(payload);
+        }
+
+        @Override
+        public WebSocketMessage binaryMessage(Function<DataBufferFactory, DataBuffer> payloadFactory) {
+            return delegate.binaryMessage(payloadFactory);
+        }
+
+        @Override
+        public WebSocketMessage pingMessage(Function<DataBufferFactory, DataBuffer> payloadFactory) {
+            return delegate.pingMessage(payloadFactory);
+        }
+
+        @Override
+        public WebSocketMessage pongMessage(Function<DataBufferFactory, DataBuffer> payloadFactory) {
+            return delegate.pongMessage(payloadFactory);
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+}
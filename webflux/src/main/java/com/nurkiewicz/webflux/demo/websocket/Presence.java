@@ -0,0 +1,85 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Live WebSocket sessions of this node, per endpoint, and members of every chat room (see {@link ChatRooms}).
+ * <p>
+ * At most <code>websocket.max-sessions</code> sessions are admitted at once, across all endpoints,
+ * so a connection storm cannot grow memory and subscribers without limit.
+ * Sessions are counted as <code>websocket.sessions{endpoint}</code>, rejected ones as <code>websocket.sessions.rejected</code>,
+ * open chat rooms as <code>chat.rooms</code>.
+ */
+@Component
+public class Presence {
+
+    private final ChatRooms chatRooms;
+    private final MeterRegistry meterRegistry;
+    private final int maxSessions;
+    private final AtomicInteger total = new AtomicInteger();
+    private final ConcurrentHashMap<String, AtomicInteger> sessions = new ConcurrentHashMap<>();
+    private final Counter rejected;
+
+    public Presence(
+            ChatRooms chatRooms,
+            MeterRegistry meterRegistry,
+            @Value("${websocket.max-sessions:10000}") int maxSessions) {
+        this.chatRooms = chatRooms;
+        this.meterRegistry = meterRegistry;
+        this.maxSessions = maxSessions;
+        this.rejected = meterRegistry.counter("websocket.sessions.rejected");
+        Gauge.builder("chat.rooms", chatRooms, ChatRooms::size).register(meterRegistry);
+    }
+
+    /**
+     * @return <code>false</code> when the limit is reached, session must not be handled then
+     */
+    boolean enter(String endpoint) {
+        if (total.incrementAndGet() > maxSessions) {
+            total.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        sessions.computeIfAbsent(endpoint, this::gauge).incrementAndGet();
+        return true;
+    }
+
+    void leave(String endpoint) {
+        sessions.get(endpoint).decrementAndGet();
+        total.decrementAndGet();
+    }
+
+    private AtomicInteger gauge(String endpoint) {
+        return meterRegistry.gauge("websocket.sessions", Tags.of("endpoint", endpoint), new AtomicInteger());
+    }
+
+    public int total() {
+        return total.get();
+    }
+
+    public SortedMap<String, Integer> sessions() {
+        SortedMap<String, Integer> snapshot = new TreeMap<>();
+        sessions.forEach((endpoint, count) -> snapshot.put(endpoint, count.get()));
+        return snapshot;
+    }
+
+    public SortedMap<String, Integer> rooms() {
+        return chatRooms.members();
+    }
+
+    public int members(String room) {
+        return chatRooms.members(room);
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+/**
+ * <code>/actuator/presence</code>, live WebSocket sessions per endpoint and local members of every chat room.
+ */
+@Component
+@Endpoint(id = "presence")
+public class PresenceEndpoint {
+
+    private final Presence presence;
+
+    public PresenceEndpoint(Presence presence) {
+        this.presence = presence;
+    }
+
+    @ReadOperation
+    public Map<String, Object> presence() {
+        return Map.of(
+                "sessions", presence.sessions(),
+                "rooms", presence.rooms());
+    }
+
+    @ReadOperation
+    public int room(@Selector String room) {
+        return presence.members(room);
+    }
+
+}
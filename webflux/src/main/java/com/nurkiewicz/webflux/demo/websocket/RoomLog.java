@@ -0,0 +1,477 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Append-only history of a single chat room, stored in memory-mapped segment files.
+ * <p>
+ * Every message gets the next sequence number, starting from <code>1</code>. Segment file is named after
+ * the sequence number of its first message and holds records:
+ * <pre>
+ * [int payload length][long sequence number][long epoch millis][payload]
+ * </pre>
+ * Payload is the {@link ChatFrame} exactly as sent to clients, so replayed frames are read-only slices of the mapping.
+ * Heap only holds one small entry per segment (first sequence number and timestamp), regardless of history length.
+ * Records are not forced to disk, they survive process restart, not necessarily power loss.
+ * <p>
+ * Opening (recovery, mapping the first segment) does blocking I/O and must not run on an event loop. Appends usually don't:
+ * once the active segment is nearly full, the next one is created and mapped in advance on {@link Schedulers#boundedElastic()},
+ * rolling over only renames it. Only when it is not ready in time the roll maps a segment itself.
+ * Sealed segments older than <code>retention</code>, and all but the newest <code>maxSegments</code>, are deleted
+ * in the background after every roll and on recovery, see {@link #expire(Path, Duration, int)} for logs not open.
+ * <p>
+ * Appends must not be concurrent, reads may run concurrently with them.
+ */
+class RoomLog {
+
+    private static final int HEADER = Integer.BYTES + Long.BYTES + Long.BYTES;
+    private static final String SUFFIX = ".log";
+    private static final String PREPARED_SUFFIX = ".next";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final Duration retention;
+    private final int maxSegments;
+    /**
+     * Only {@link #expire()} and {@link #expireIdle()} remove (oldest) segments, only {@link #roll} adds (newest) ones.
+     */
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private volatile Segment active;
+    private volatile CompletableFuture<Prepared> next;
+    private volatile long lastSeq;
+    private long lastTimestamp;
+
+    RoomLog(Path dir, int segmentSize) {
+        this(dir, segmentSize, Duration.ofMillis(Long.MAX_VALUE), Integer.MAX_VALUE);
+    }
+
+    RoomLog(Path dir, int segmentSize, Duration retention, int maxSegments) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.retention = retention;
+        this.maxSegments = maxSegments;
+        try {
+            Files.createDirectories(dir);
+            recover();
+            expire();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (active == null) {
+            //still opening, blocking is fine here
+            roll(lastSeq + 1, 0);
+        }
+    }
+
+    private void recover() throws IOException {
+        for (Path leftover : files(dir, PREPARED_SUFFIX)) {
+            Files.deleteIfExists(leftover);
+        }
+        for (Path file : files(dir, SUFFIX)) {
+            String name = file.getFileName().toString();
+            long firstSeq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                Segment segment = new Segment(firstSeq, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+                //full segments are read up to the first empty record, without touching all their pages now
+                segment.end = segment.buffer.capacity();
+                segments.add(segment);
+            }
+        }
+        //only the last segment may be partially filled
+        if (!segments.isEmpty()) {
+            Segment last = segments.get(segments.size() - 1);
+            last.scanToEnd();
+            lastSeq = last.firstSeq + last.count - 1;
+            lastTimestamp = last.lastTimestamp;
+            active = last;
+        }
+    }
+
+    private static List<Path> files(Path dir, String suffix) throws IOException {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list
+                    .filter(file -> file.getFileName().toString().endsWith(suffix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    long lastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Appends message with the next sequence number and returns it encoded, ready to be broadcast.
+     * Returned frame is a slice of the mapping, just like a replayed one, so it is written to sockets from direct memory.
+     */
+    ChatFrame append(String text) {
+        long seq = lastSeq + 1;
+        long timestamp = Math.max(lastTimestamp, System.currentTimeMillis());
+        ChatFrame frame = ChatFrame.encode(seq, text);
+        Segment segment = active;
+        if (segment == null || !segment.fits(frame.size())) {
+            segment = roll(seq, frame.size());
+        }
+        int position = segment.append(seq, timestamp, frame.payload());
+        lastTimestamp = timestamp;
+        lastSeq = seq;
+        //prepared only when about to be needed, an idle room holds no spare segment
+        if (next == null && segment.end > segment.buffer.capacity() - segment.buffer.capacity() / 8) {
+            next = Mono
+                    .fromCallable(this::prepare)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .toFuture();
+        }
+        return segment.read(position);
+    }
+
+    private Segment roll(long firstSeq, int payloadSize) {
+        Path file = file(firstSeq);
+        MappedByteBuffer buffer = takePrepared(file, payloadSize);
+        if (buffer == null) {
+            //not prepared in time or message larger than a segment, the only blocking roll
+            buffer = map(file, Math.max(segmentSize, HEADER + payloadSize), StandardOpenOption.CREATE_NEW);
+        }
+        Segment segment = new Segment(firstSeq, buffer);
+        segments.add(segment);
+        active = segment;
+        Schedulers.boundedElastic().schedule(this::expire);
+        return segment;
+    }
+
+    /**
+     * @return mapping of the next segment, renamed to <code>file</code>, <code>null</code> if it is not ready or too small
+     */
+    private MappedByteBuffer takePrepared(Path file, int payloadSize) {
+        CompletableFuture<Prepared> prepared = next;
+        next = null;
+        if (prepared == null) {
+            return null;
+        }
+        if (!prepared.isDone() || prepared.isCompletedExceptionally() || prepared.join().buffer.capacity() < HEADER + payloadSize) {
+            prepared.thenAccept(unused -> delete(unused.file));
+            return null;
+        }
+        try {
+            Files.move(prepared.join().file, file, StandardCopyOption.ATOMIC_MOVE);
+            return prepared.join().buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Discards the next segment prepared in advance, waiting for it if still being created.
+     * Log stays usable, a later append prepares another one when needed.
+     */
+    void close() {
+        CompletableFuture<Prepared> prepared = next;
+        next = null;
+        if (prepared != null) {
+            prepared.thenAccept(unused -> delete(unused.file)).exceptionally(e -> null).join();
+        }
+    }
+
+    private Prepared prepare() {
+        Path file = dir.resolve(System.nanoTime() + PREPARED_SUFFIX);
+        return new Prepared(file, map(file, segmentSize, StandardOpenOption.CREATE_NEW));
+    }
+
+    private static MappedByteBuffer map(Path file, int size, StandardOpenOption create) {
+        try (FileChannel channel = FileChannel.open(file, create, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path file(long firstSeq) {
+        return dir.resolve(String.format("%020d%s", firstSeq, SUFFIX));
+    }
+
+    /**
+     * Deletes the oldest segments, never the active one. Readers still holding a deleted segment
+     * finish reading it, its mapping lives until garbage collected.
+     */
+    synchronized void expire() {
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            //every message of the oldest segment is older than the first message of the following one
+            boolean expired = segments.get(1).firstTimestamp() < cutoff;
+            if (!expired && segments.size() <= maxSegments) {
+                return;
+            }
+            segments.remove(0);
+            delete(file(oldest.firstSeq));
+        }
+    }
+
+    /**
+     * Like {@link #expire()}, but for a log of a room nobody is in (not appended to meanwhile):
+     * the active segment goes as well once its newest message expired, next append starts a new one.
+     */
+    synchronized void expireIdle() {
+        expire();
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        Segment last = active;
+        if (segments.size() == 1 && last != null && (last.count == 0 || last.lastTimestamp <= cutoff)) {
+            active = null;
+            segments.remove(0);
+            delete(file(last.firstSeq));
+        }
+    }
+
+    /**
+     * Retention of a log that is not open, by modification time of its files.
+     * Deletes the directory once nothing is left in it.
+     */
+    static void expire(Path dir, Duration retention, int maxSegments) throws IOException {
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        for (Path prepared : files(dir, PREPARED_SUFFIX)) {
+            Files.deleteIfExists(prepared);
+        }
+        List<Path> files = files(dir, SUFFIX);
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            if (i < files.size() - maxSegments || Files.getLastModifiedTime(file).toMillis() <= cutoff) {
+                Files.deleteIfExists(file);
+            }
+        }
+        try (Stream<Path> left = Files.list(dir)) {
+            if (left.findAny().isEmpty()) {
+                Files.deleteIfExists(dir);
+            }
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Messages with sequence numbers from <code>fromSeq</code> to <code>toSeq</code> (both inclusive),
+     * read lazily, as requested.
+     */
+    Flux<ChatFrame> range(long fromSeq, long toSeq) {
+        return Flux.generate(() -> seek(fromSeq), (cursor, sink) -> {
+            ChatFrame frame = cursor.next();
+            if (frame == null || frame.seq() > toSeq) {
+                sink.complete();
+            } else {
+                sink.next(frame);
+            }
+            return cursor;
+        });
+    }
+
+    /**
+     * @return sequence number of the first message stored at or after <code>time</code>,
+     * {@link #lastSeq()} + 1 if there is none yet
+     */
+    long seqAt(Instant time) {
+        long millis = time.toEpochMilli();
+        Segment[] snapshot = segments.toArray(new Segment[0]);
+        int index = segmentAt(snapshot, segment -> segment.firstTimestamp() <= millis);
+        for (int i = Math.max(index, 0); i < snapshot.length; i++) {
+            Segment segment = snapshot[i];
+            for (int position = 0; segment.has(position); position = segment.next(position)) {
+                if (segment.timestamp(position) >= millis) {
+                    return segment.seq(position);
+                }
+            }
+        }
+        return lastSeq + 1;
+    }
+
+    private Cursor seek(long seq) {
+        Segment[] snapshot = segments.toArray(new Segment[0]);
+        if (snapshot.length == 0) {
+            return new Cursor(null);
+        }
+        Segment segment = snapshot[Math.max(segmentAt(snapshot, candidate -> candidate.firstSeq <= seq), 0)];
+        Cursor cursor = new Cursor(segment);
+        while (segment.has(cursor.position) && segment.seq(cursor.position) < seq) {
+            cursor.position = segment.next(cursor.position);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return segment following the given one (the oldest one if given was already deleted), <code>null</code> for the last one
+     */
+    private Segment after(Segment segment) {
+        for (Segment candidate : segments) {
+            if (candidate.firstSeq > segment.firstSeq) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Binary search over segments, both predicates are monotonic.
+     *
+     * @return index of the last segment matching <code>predicate</code>, <code>-1</code> if none
+     */
+    private static int segmentAt(Segment[] segments, Predicate<Segment> predicate) {
+        int low = 0;
+        int high = segments.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (predicate.test(segments[mid])) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private class Cursor {
+
+        private Segment segment;
+        private int position;
+
+        Cursor(Segment segment) {
+            this.segment = segment;
+        }
+
+        ChatFrame next() {
+            while (segment != null) {
+                if (segment.has(position)) {
+                    ChatFrame frame = segment.read(position);
+                    position = segment.next(position);
+                    return frame;
+                }
+                Segment following = after(segment);
+                if (following == null) {
+                    return null;
+                }
+                segment = following;
+                position = 0;
+            }
+            return null;
+        }
+    }
+
+    private static class Prepared {
+
+        private final Path file;
+        private final MappedByteBuffer buffer;
+
+        Prepared(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Segment {
+
+        private final long firstSeq;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Written after the record itself, so readers never see partially written records.
+         */
+        private volatile int end;
+        private int count;
+        private long lastTimestamp;
+
+        Segment(long firstSeq, MappedByteBuffer buffer) {
+            this.firstSeq = firstSeq;
+            this.buffer = buffer;
+        }
+
+        void scanToEnd() {
+            end = buffer.capacity();
+            int position = 0;
+            while (has(position) && position + HEADER + buffer.getInt(position) <= buffer.capacity()) {
+                lastTimestamp = timestamp(position);
+                count++;
+                position = next(position);
+            }
+            end = position;
+        }
+
+        boolean has(int position) {
+            return position < end && position + HEADER <= buffer.capacity() && buffer.getInt(position) > 0;
+        }
+
+        boolean fits(int payloadSize) {
+            return end + HEADER + payloadSize <= buffer.capacity();
+        }
+
+        /**
+         * @return position of the appended record
+         */
+        int append(long seq, long timestamp, ByteBuffer payload) {
+            int position = end;
+            int length = payload.remaining();
+            buffer.putLong(position + Integer.BYTES, seq);
+            buffer.putLong(position + Integer.BYTES + Long.BYTES, timestamp);
+            ByteBuffer target = buffer.duplicate();
+            target.position(position + HEADER);
+            target.put(payload);
+            buffer.putInt(position, length);
+            count++;
+            lastTimestamp = timestamp;
+            end = position + HEADER + length;
+            return position;
+        }
+
+        long firstTimestamp() {
+            return has(0) ? timestamp(0) : Long.MAX_VALUE;
+        }
+
+        long seq(int position) {
+            return buffer.getLong(position + Integer.BYTES);
+        }
+
+        long timestamp(int position) {
+            return buffer.getLong(position + Integer.BYTES + Long.BYTES);
+        }
+
+        int next(int position) {
+            return position + HEADER + buffer.getInt(position);
+        }
+
+        ChatFrame read(int position) {
+            int length = buffer.getInt(position);
+            ByteBuffer payload = buffer
+                    .duplicate()
+                    .position(position + HEADER)
+                    .limit(position + HEADER + length)
+                    .slice()
+                    .asReadOnlyBuffer();
+            return ChatFrame.wrap(seq(position), payload);
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+/**
+ * Bounded queue between a shared source (chat room, ticker) and a single WebSocket session.
+ * <p>
+ * Without it a slow client makes the source buffer on its behalf, without limit, or fail for everyone.
+ * Here up to <code>websocket.outbound.capacity</code> messages wait for the socket to become writable,
+ * on overflow the session either loses the oldest or the newest messages, or is disconnected.
+ * <p>
+ * Meters are tagged by endpoint only, never by session or room, so their number doesn't grow with connected clients.
+ * Messages waiting in all sessions of an endpoint are exposed as <code>websocket.outbound.lag{endpoint}</code>,
+ * queue depth seen by every message leaving a queue (max and percentiles of per-session lag) as <code>websocket.outbound.queued</code>.
+ * Messages dropped and sessions evicted are counted as <code>websocket.outbound.dropped</code> and <code>websocket.outbound.evictions</code>.
+ */
+@Component
+public class SessionOutbound {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionOutbound.class);
+
+    public enum Overflow {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        /**
+         * Close the session once more than <code>capacity</code> messages are waiting.
+         */
+        DISCONNECT
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final int capacity;
+    private final Overflow overflow;
+    private final Coalescer coalescer;
+    private final ConcurrentMap<String, AtomicInteger> lagByEndpoint = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SessionOutbound(
+            MeterRegistry meterRegistry,
+            @Value("${websocket.outbound.capacity:256}") int capacity,
+            @Value("${websocket.outbound.overflow:drop-oldest}") Overflow overflow,
+            Coalescer coalescer) {
+        this.meterRegistry = meterRegistry;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.coalescer = coalescer;
+    }
+
+    SessionOutbound(MeterRegistry meterRegistry, int capacity, Overflow overflow) {
+        this(meterRegistry, capacity, overflow, new Coalescer(meterRegistry, false, Duration.ZERO, 0, Schedulers.parallel()));
+    }
+
+    /**
+     * Sends <code>messages</code> through bounded queue, closes the session with {@link CloseStatus#POLICY_VIOLATION} when evicted.
+     */
+    Mono<Void> send(WebSocketSession session, String endpoint, Flux<WebSocketMessage> messages) {
+        return send(session, bound(endpoint, session.getId(), messages, message -> message.getPayload().readableByteCount()));
+    }
+
+    /**
+     * Like {@link #send(WebSocketSession, String, Flux)}, when only part of <code>messages</code> went through {@link #bound}.
+     */
+    Mono<Void> send(WebSocketSession session, Flux<WebSocketMessage> messages) {
+        return session
+                .send(messages)
+                .onErrorResume(SlowConsumerException.class, e -> {
+                    log.warn("[{}] {}", session.getId(), e.getMessage());
+                    return session.close(CloseStatus.POLICY_VIOLATION.withReason("Too slow"));
+                });
+    }
+
+    /**
+     * Like {@link #bound(String, String, Flux)}, coalesced first when {@link Coalescer} is enabled.
+     * Queue then holds (and its capacity counts) whole batches, which are still sent as separate frames.
+     */
+    <T> Flux<T> bound(String endpoint, String sessionId, Flux<T> messages, ToIntFunction<T> size) {
+        if (!coalescer.enabled()) {
+            return bound(endpoint, sessionId, messages);
+        }
+        return bound(endpoint, sessionId, coalescer.coalesce(endpoint, messages, size))
+                .flatMapIterable(batch -> batch);
+    }
+
+    /**
+     * Overflow error of <code>onBackpressureBuffer</code> is delayed until the buffer is drained, which never happens
+     * for a session that stopped reading. Eviction is therefore signalled through <code>evicted</code>, right away.
+     */
+    <T> Flux<T> bound(String endpoint, String sessionId, Flux<T> messages) {
+        return Flux.defer(() -> {
+            AtomicInteger lag = new AtomicInteger();
+            AtomicInteger endpointLag = endpointLag(endpoint);
+            DistributionSummary queued = DistributionSummary
+                    .builder("websocket.outbound.queued")
+                    .baseUnit("messages")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+            Counter dropped = meterRegistry.counter("websocket.outbound.dropped", "endpoint", endpoint, "overflow", overflow.name());
+            Sinks.Empty<T> evicted = Sinks.empty();
+            return messages
+                    .doOnNext(message -> {
+                        lag.incrementAndGet();
+                        endpointLag.incrementAndGet();
+                    })
+                    .onBackpressureBuffer(capacity, message -> {
+                        lag.decrementAndGet();
+                        endpointLag.decrementAndGet();
+                        if (overflow == Overflow.DISCONNECT) {
+                            meterRegistry.counter("websocket.outbound.evictions", "endpoint", endpoint).increment();
+                            evicted.tryEmitError(new SlowConsumerException(sessionId, capacity));
+                        } else {
+                            dropped.increment();
+                        }
+                    }, strategy())
+                    .doOnNext(message -> {
+                        queued.record(lag.getAndDecrement());
+                        endpointLag.decrementAndGet();
+                    })
+                    .takeUntilOther(evicted.asMono())
+                    .doFinally(signal -> endpointLag.addAndGet(-lag.getAndSet(0)));
+        });
+    }
+
+    private AtomicInteger endpointLag(String endpoint) {
+        return lagByEndpoint.computeIfAbsent(endpoint, key -> meterRegistry.gauge(
+                "websocket.outbound.lag", Tags.of("endpoint", key), new AtomicInteger()));
+    }
+
+    private BufferOverflowStrategy strategy() {
+        switch (overflow) {
+            case DROP_OLDEST:
+                return BufferOverflowStrategy.DROP_OLDEST;
+            case DROP_NEWEST:
+                return BufferOverflowStrategy.DROP_LATEST;
+            default:
+                //session is evicted as soon as a message is dropped
+                return BufferOverflowStrategy.DROP_LATEST;
+        }
+    }
+
+    static class SlowConsumerException extends RuntimeException {
+
+        SlowConsumerException(String sessionId, int capacity) {
+            super("Session " + sessionId + " evicted, more than " + capacity + " messages waiting");
+        }
+    }
+
+}
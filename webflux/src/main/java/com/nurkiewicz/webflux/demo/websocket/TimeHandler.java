@@ -2,36 +2,72 @@ package com.nurkiewicz.webflux.demo.websocket;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBufferFactory;
 import org.springframework.web.reactive.socket.WebSocketHandler;
 import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.reactive.socket.WebSocketSession;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.time.Instant;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Every session receives the same ticks, from a single timer shared by all of them.
+ * Each tick is formatted and encoded once, sessions wrap the same read-only bytes (see {@link ChatFrame}).
+ * Timer runs only while at least one session is connected.
+ */
 public class TimeHandler implements WebSocketHandler {
 
     private static final Logger log = LoggerFactory.getLogger(EchoHandler.class);
 
+    private final SessionOutbound outbound;
+    private final Flux<ByteBuffer> ticks;
+
+    public TimeHandler(SessionOutbound outbound) {
+        this(outbound, Duration.ofMillis(500), Schedulers.parallel());
+    }
+
+    TimeHandler(SessionOutbound outbound, Duration period, Scheduler scheduler) {
+        this.outbound = outbound;
+        this.ticks = Flux
+                .interval(period, scheduler)
+                .timestamp(scheduler)
+                //ten map() generuje stringi
+                //once per tick, not once per session
+                .map(t -> ByteBuffer.wrap((t.getT2() + "\t" + Instant.ofEpochMilli(t.getT1())).getBytes(UTF_8)).asReadOnlyBuffer())
+                .publish()
+                .refCount();
+    }
 
     @Override
     public Mono<Void> handle(WebSocketSession session) {
-        final Flux<WebSocketMessage> outMessages = Flux
-                .interval(Duration.ofMillis(500))
-                .timestamp()
-                //ten map() generuje stringi
-                .map(t -> t.getT2() + "\t" + Instant.ofEpochMilli(t.getT1()))
-                //string musi zostać przepakowana w textmessage zmiana typyu na WebSocket Message
-                .map(session::textMessage)
+        final Flux<WebSocketMessage> outMessages = ticks
+                //shared bytes wrapped in a WebSocketMessage of this session, without copying
+                .map(tick -> toMessage(session.bufferFactory(), tick))
                 //tu mamy strumien web socketMessage
                 .doOnSubscribe(s -> log.info("Got new connection {}", session))
                 .doOnComplete(() -> log.info("Connection completed {}", session));
         //metoda nie bierze jednej wiadomości
         //ona bierze producenta wiadomości
         //to jest strumień wiadomości który chcemy wysłać
-        return session.send(outMessages);
+        //inbound carries only pongs (see Heartbeat), still read so that the session is seen alive and its close noticed
+        return outbound
+                .send(session, "time", outMessages)
+                .and(session.receive().then());
+    }
+
+    Flux<ByteBuffer> ticks() {
+        return ticks;
+    }
+
+    static WebSocketMessage toMessage(DataBufferFactory bufferFactory, ByteBuffer tick) {
+        return new WebSocketMessage(WebSocketMessage.Type.TEXT, bufferFactory.wrap(tick.duplicate()));
     }
 
 }
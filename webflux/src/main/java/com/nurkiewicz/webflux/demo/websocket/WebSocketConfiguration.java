@@ -1,7 +1,9 @@
 package com.nurkiewicz.webflux.demo.websocket;
 
+import java.time.Duration;
 import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.HandlerMapping;
@@ -13,11 +15,17 @@ import org.springframework.web.reactive.socket.server.support.WebSocketHandlerAd
 public class WebSocketConfiguration {
 
     @Bean
-    public HandlerMapping handlerMapping() {
+    public HandlerMapping handlerMapping(
+            ChatRooms chatRooms,
+            SessionOutbound outbound,
+            Heartbeat heartbeat,
+            @Value("${websocket.echo.log-messages:false}") boolean echoLogMessages,
+            @Value("${websocket.echo.delay:0s}") Duration echoDelay,
+            @Value("${websocket.echo.upper-case:true}") boolean echoUpperCase) {
         Map<String, WebSocketHandler> map = Map.of(
-                "/echo", new EchoHandler(),
-                "/time", new TimeHandler(),
-                "/chat", new ChatHandler()
+                "/echo", heartbeat.decorate("echo", new EchoHandler(echoLogMessages, echoDelay, echoUpperCase)),
+                "/time", heartbeat.decorate("time", new TimeHandler(outbound)),
+                "/chat", heartbeat.decorate("chat", new ChatHandler(chatRooms, outbound))
         );
         SimpleUrlHandlerMapping mapping = new SimpleUrlHandlerMapping();
         mapping.setUrlMap(map);
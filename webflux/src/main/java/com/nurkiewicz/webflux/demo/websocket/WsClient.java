@@ -1,46 +1,302 @@
 package com.nurkiewicz.webflux.demo.websocket;
 
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
 import org.springframework.web.reactive.socket.client.WebSocketClient;
 import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.WebsocketClientSpec;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * WebSocket load generator. Ramps up thousands of concurrent sessions against <code>/echo</code>, <code>/chat</code>
+ * or <code>/time</code>, records latency of every received message and prints percentiles, throughput and failures.
+ * <pre>
+ * WsClient --endpoint=chat --sessions=5000 --ramp-up=30s --duration=2m --rate=2 --payload=256 --rooms=500
+ * </pre>
+ * Every sent message starts with {@link System#nanoTime()}, so for <code>/echo</code> latency is the round trip and for
+ * <code>/chat</code> it is the time from sending to receiving the broadcast by every member of the room.
+ * <code>/time</code> only receives, latency is the delay of each tick, at millisecond precision.
+ */
 public class WsClient {
 
     private static final Logger log = LoggerFactory.getLogger(WsClient.class);
 
-    public static void main(String[] args) throws URISyntaxException, InterruptedException {
-        WebSocketClient client = new ReactorNettyWebSocketClient();
-
-        URI url = new URI("ws://localhost:8080/time");
-        final Mono<Void> reqResp = client
-                .execute(url, session -> {
-                    Flux<WebSocketMessage> outMessages = Flux
-                            .interval(Duration.ofSeconds(1))
-                            .take(10)
-                            .map(x -> "Message " + x)
-                            .doOnNext(x -> log.info("About to send '{}'", x))
-                            .map(session::textMessage);
-                    Mono<Void> receiving = session
-                            .receive()
-                            .map(WebSocketMessage::getPayloadAsText)
-                            .doOnNext(x -> log.info("Received '{}'", x))
-                            .then();
-                    return session.send(outMessages).mergeWith(receiving).then();
-                });
-
-        final Disposable disposable = reqResp.subscribe();
-        TimeUnit.SECONDS.sleep(20);
-        disposable.dispose();
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+    private final Options options;
+    private final WebSocketClient client;
+    private final String padding;
+    private final Recorder latency = new Recorder(HIGHEST_LATENCY, 3);
+    private final Histogram total = new Histogram(HIGHEST_LATENCY, 3);
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger connectFailures = new AtomicInteger();
+    private final AtomicInteger sessionErrors = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+
+    WsClient(Options options) {
+        this.options = options;
+        //every session holds its own connection, default pool would cap concurrent sessions
+        this.client = new ReactorNettyWebSocketClient(
+                HttpClient.create(ConnectionProvider.newConnection()),
+                () -> WebsocketClientSpec.builder().maxFramePayloadLength(Math.max(65536, options.payload * 2)));
+        this.padding = "x".repeat(options.payload);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Options.USAGE);
+            System.exit(2);
+            return;
+        }
+        new WsClient(options).run();
+    }
+
+    void run() throws InterruptedException {
+        log.info("Opening {} sessions to {} over {}, each sending {} messages/s of {}B, for {}",
+                options.sessions, options.uri(0), options.rampUp, options.rate, options.payload, options.duration);
+        long start = System.nanoTime();
+        Disposable load = Flux
+                .range(0, options.sessions)
+                .delayElements(options.rampUp.dividedBy(Math.max(options.sessions, 1)))
+                .flatMap(this::session, options.sessions)
+                .subscribe();
+        Disposable progress = Flux
+                .interval(Duration.ofSeconds(5))
+                .subscribe(x -> report("Progress", latency.getIntervalHistogram(), 5));
+        TimeUnit.NANOSECONDS.sleep(options.rampUp.plus(options.duration).toNanos());
+        progress.dispose();
+        load.dispose();
+        report("Total", latency.getIntervalHistogram(), (System.nanoTime() - start) / 1_000_000_000.0);
+    }
+
+    private Mono<Void> session(int id) {
+        return Mono.defer(() -> {
+            AtomicBoolean open = new AtomicBoolean();
+            return client
+                    .execute(options.uri(id), session -> {
+                        open.set(true);
+                        connected.incrementAndGet();
+                        Mono<Void> receiving = session
+                                .receive()
+                                .map(WebSocketMessage::getPayloadAsText)
+                                .doOnNext(this::record)
+                                .then();
+                        if (options.endpoint == Endpoint.TIME) {
+                            return receiving;
+                        }
+                        Flux<WebSocketMessage> outMessages = Flux
+                                .interval(Duration.ofNanos(TimeUnit.SECONDS.toNanos(1) / options.rate))
+                                .map(x -> session.textMessage(System.nanoTime() + "\t" + padding))
+                                .doOnNext(x -> sent.incrementAndGet());
+                        return session.send(outMessages).and(receiving);
+                    })
+                    .doOnError(e -> {
+                        if (open.get()) {
+                            sessionErrors.incrementAndGet();
+                        } else {
+                            connectFailures.incrementAndGet();
+                            log.debug("Connection failed: {}", e.toString());
+                        }
+                    })
+                    .onErrorResume(e -> Mono.empty())
+                    .doFinally(signal -> {
+                        if (open.get()) {
+                            connected.decrementAndGet();
+                        }
+                    });
+        });
+    }
+
+    private void record(String payload) {
+        received.incrementAndGet();
+        long nanos = options.endpoint.latencyNanos(payload);
+        latency.recordValue(Math.max(0, Math.min(nanos, HIGHEST_LATENCY)));
+    }
+
+    private void report(String label, Histogram interval, double seconds) {
+        total.add(interval);
+        Histogram histogram = label.equals("Total") ? total : interval;
+        log.info("{}: {} connected, {} connect failures, {} session errors, {} sent, {} received ({} msg/s), latency p50 {}ms p90 {}ms p99 {}ms p99.9 {}ms max {}ms",
+                label,
+                connected.get(),
+                connectFailures.get(),
+                sessionErrors.get(),
+                sent.get(),
+                received.get(),
+                Math.round(histogram.getTotalCount() / seconds),
+                millis(histogram.getValueAtPercentile(50)),
+                millis(histogram.getValueAtPercentile(90)),
+                millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getMaxValue()));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1_000_000.0);
+    }
+
+    enum Endpoint {
+
+        /**
+         * <code>nanoTime TAB padding</code>, upper-cased by the server unless <code>websocket.echo.upper-case</code> is off
+         */
+        ECHO {
+            @Override
+            long latencyNanos(String payload) {
+                return System.nanoTime() - Long.parseLong(payload.substring(0, payload.indexOf('\t')));
+            }
+        },
+
+        /**
+         * <code>seq TAB nanoTime TAB padding</code>
+         */
+        CHAT {
+            @Override
+            long latencyNanos(String payload) {
+                int start = payload.indexOf('\t') + 1;
+                return System.nanoTime() - Long.parseLong(payload.substring(start, payload.indexOf('\t', start)));
+            }
+        },
+
+        /**
+         * <code>tick TAB instant</code>
+         */
+        TIME {
+            @Override
+            long latencyNanos(String payload) {
+                Instant sent = Instant.parse(payload.substring(payload.indexOf('\t') + 1));
+                return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - sent.toEpochMilli());
+            }
+        };
+
+        abstract long latencyNanos(String payload);
+    }
+
+    static class Options {
+
+        String url = "ws://localhost:8080";
+        Endpoint endpoint = Endpoint.ECHO;
+        int sessions = 1000;
+        Duration rampUp = Duration.ofSeconds(10);
+        Duration duration = Duration.ofSeconds(60);
+        int rate = 1;
+        int payload = 64;
+        int rooms = 100;
+
+        private static final int MAX_RATE = 1_000_000;
+
+        static final String USAGE = "Usage: WsClient [--url=ws://localhost:8080] [--endpoint=echo|chat|time] [--sessions=1000]"
+                + " [--ramp-up=10s] [--duration=60s] [--rate=1] [--payload=64] [--rooms=100]\n"
+                + "sessions, rate (messages per second, at most " + MAX_RATE + ") and rooms must be positive, duration longer than zero";
+
+        /**
+         * <code>--name=value</code> arguments, unknown names and values out of range are rejected.
+         *
+         * @throws IllegalArgumentException with a message naming the offending option, {@link #USAGE} explains the rest
+         */
+        static Options parse(String... args) {
+            Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+                }
+                values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+            Options options = new Options();
+            options.url = values.getOrDefault("url", options.url);
+            options.endpoint = endpoint(values.getOrDefault("endpoint", options.endpoint.name()));
+            options.sessions = intOption(values, "sessions", options.sessions, 1, Integer.MAX_VALUE);
+            options.rampUp = durationOption(values, "ramp-up", options.rampUp);
+            options.duration = durationOption(values, "duration", options.duration);
+            options.rate = intOption(values, "rate", options.rate, 1, MAX_RATE);
+            options.payload = intOption(values, "payload", options.payload, 0, Integer.MAX_VALUE / 2);
+            options.rooms = intOption(values, "rooms", options.rooms, 1, Integer.MAX_VALUE);
+            values.keySet().removeAll(List.of("url", "endpoint", "sessions", "ramp-up", "duration", "rate", "payload", "rooms"));
+            if (!values.isEmpty()) {
+                throw new IllegalArgumentException("Unknown options: " + values.keySet());
+            }
+            if (options.duration.isZero()) {
+                throw new IllegalArgumentException("--duration must be longer than zero");
+            }
+            return options;
+        }
+
+        private static Endpoint endpoint(String value) {
+            try {
+                return Endpoint.valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("--endpoint must be one of echo, chat, time, got: " + value);
+            }
+        }
+
+        private static int intOption(Map<String, String> values, String name, int defaultValue, int min, int max) {
+            String value = values.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            int parsed;
+            try {
+                parsed = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " must be a number, got: " + value);
+            }
+            if (parsed < min || parsed > max) {
+                throw new IllegalArgumentException("--" + name + " must be between " + min + " and " + max + ", got: " + value);
+            }
+            return parsed;
+        }
+
+        private static Duration durationOption(Map<String, String> values, String name, Duration defaultValue) {
+            String value = values.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            Duration parsed;
+            try {
+                parsed = DurationStyle.detectAndParse(value);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("--" + name + " must be a duration like 30s or 2m, got: " + value);
+            }
+            if (parsed.isNegative()) {
+                throw new IllegalArgumentException("--" + name + " must not be negative, got: " + value);
+            }
+            return parsed;
+        }
+
+        /**
+         * Chat sessions are spread evenly over rooms and skip history, so only live messages are measured.
+         */
+        URI uri(int session) {
+            String path = "/" + endpoint.name().toLowerCase();
+            if (endpoint == Endpoint.CHAT) {
+                return URI.create(url + path + "?room=load-" + (session % rooms) + "&last=0");
+            }
+            return URI.create(url + path);
+        }
     }
 
 }
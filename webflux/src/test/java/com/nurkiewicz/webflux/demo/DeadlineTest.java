@@ -0,0 +1,144 @@
+package com.nurkiewicz.webflux.demo;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.util.context.Context;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeadlineTest {
+
+    private final DeadlineWebFilter webFilter = new DeadlineWebFilter(Map.of("/proxy", Duration.ofSeconds(5)));
+    private final DeadlineExchangeFilter exchangeFilter = new DeadlineExchangeFilter();
+    private final ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("http://example.com")).build();
+
+    @Test
+    public void shouldTakeDeadlineFromRoute() {
+        //when
+        Deadline deadline = inboundDeadline(MockServerHttpRequest.get("/proxy"));
+
+        //then
+        assertThat(deadline.remaining()).isBetween(Duration.ofSeconds(4), Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void shouldLetHeaderShortenRouteDeadline() {
+        //when
+        Deadline shorter = inboundDeadline(MockServerHttpRequest.get("/proxy").header(DeadlineWebFilter.HEADER, "100ms"));
+        Deadline longer = inboundDeadline(MockServerHttpRequest.get("/proxy").header(DeadlineWebFilter.HEADER, "1m"));
+
+        //then
+        assertThat(shorter.remaining()).isLessThanOrEqualTo(Duration.ofMillis(100));
+        assertThat(longer.remaining()).isLessThanOrEqualTo(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void shouldIgnoreInvalidHeader() {
+        //when
+        Deadline negative = inboundDeadline(MockServerHttpRequest.get("/hello").header(DeadlineWebFilter.HEADER, "-1s"));
+        Deadline zero = inboundDeadline(MockServerHttpRequest.get("/hello").header(DeadlineWebFilter.HEADER, "0ms"));
+        Deadline overflowing = inboundDeadline(MockServerHttpRequest.get("/hello").header(DeadlineWebFilter.HEADER, "9999999999999999d"));
+        Deadline malformed = inboundDeadline(MockServerHttpRequest.get("/proxy").header(DeadlineWebFilter.HEADER, "soon"));
+
+        //then
+        assertThat(negative).isNull();
+        assertThat(zero).isNull();
+        assertThat(overflowing).isNull();
+        assertThat(malformed.remaining()).isBetween(Duration.ofSeconds(4), Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void shouldCutHeaderDownToMaxTimeout() {
+        //when
+        Deadline deadline = inboundDeadline(MockServerHttpRequest.get("/hello").header(DeadlineWebFilter.HEADER, "3650d"));
+
+        //then
+        assertThat(deadline.remaining()).isBetween(Duration.ofMinutes(4), Duration.ofMinutes(5));
+    }
+
+    @Test
+    public void shouldNotSetDeadlineWithoutHeaderOrRoute() {
+        assertThat(inboundDeadline(MockServerHttpRequest.get("/hello"))).isNull();
+    }
+
+    @Test
+    public void shouldAbortOutboundCallWaitingForResponse() {
+        //given
+        Mono<ClientResponse> call = exchangeFilter
+                .filter(request, r -> Mono.never())
+                .contextWrite(Context.of(Deadline.class, Deadline.after(Duration.ofMillis(100))));
+
+        //then
+        StepVerifier.create(call)
+                .expectError(DeadlineExchangeFilter.DeadlineExceededException.class)
+                .verify(Duration.ofSeconds(2));
+    }
+
+    @Test
+    public void shouldAbortOutboundCallStillReadingBody() {
+        //given
+        DataBuffer chunk = new DefaultDataBufferFactory().wrap("partial".getBytes(UTF_8));
+        ClientResponse slowBody = ClientResponse
+                .create(HttpStatus.OK)
+                .body(Flux.just(chunk).concatWith(Flux.never()))
+                .build();
+
+        //when
+        Mono<String> body = exchangeFilter
+                .filter(request, r -> Mono.just(slowBody))
+                .flatMap(response -> response.bodyToMono(String.class))
+                .contextWrite(Context.of(Deadline.class, Deadline.after(Duration.ofMillis(100))));
+
+        //then
+        StepVerifier.create(body)
+                .expectError(DeadlineExchangeFilter.DeadlineExceededException.class)
+                .verify(Duration.ofSeconds(2));
+    }
+
+    @Test
+    public void shouldNotStartCallAfterDeadline() {
+        //given
+        AtomicReference<ClientRequest> sent = new AtomicReference<>();
+        Mono<ClientResponse> call = exchangeFilter
+                .filter(request, r -> {
+                    sent.set(r);
+                    return Mono.never();
+                })
+                .contextWrite(Context.of(Deadline.class, Deadline.after(Duration.ZERO)));
+
+        //then
+        StepVerifier.create(call)
+                .expectError(DeadlineExchangeFilter.DeadlineExceededException.class)
+                .verify(Duration.ofSeconds(1));
+        assertThat(sent.get()).isNull();
+    }
+
+    private Deadline inboundDeadline(MockServerHttpRequest.BaseBuilder<?> request) {
+        AtomicReference<Deadline> deadline = new AtomicReference<>();
+        webFilter
+                .filter(MockServerWebExchange.from(request), exchange -> Mono.deferContextual(context -> {
+                    deadline.set(Deadline.from(context));
+                    return Mono.empty();
+                }))
+                .block();
+        return deadline.get();
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.nurkiewicz.webflux.demo;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutboundPropertiesTest {
+
+    @Test
+    public void shouldBindPoolsByNameAndDefaultMissingOnes() {
+        //given
+        MapConfigurationPropertySource source = new MapConfigurationPropertySource(Map.of(
+                "outbound.pools.feeds.max-connections", "64",
+                "outbound.pools.feeds.pending-acquire-timeout", "5s",
+                "outbound.dns.cache-max-ttl", "1m"));
+
+        //when
+        OutboundProperties properties = new Binder(source).bind("outbound", OutboundProperties.class).get();
+
+        //then
+        assertThat(properties.pool("feeds").getMaxConnections()).isEqualTo(64);
+        assertThat(properties.pool("feeds").getPendingAcquireTimeout()).isEqualTo(Duration.ofSeconds(5));
+        assertThat(properties.pool("feeds").getMaxIdleTime()).isEqualTo(Duration.ofSeconds(30));
+        assertThat(properties.pool("proxy").getPendingAcquireMax()).isEqualTo(500);
+        assertThat(properties.getDns().getCacheMaxTtl()).isEqualTo(Duration.ofMinutes(1));
+        assertThat(properties.getDns().getCacheNegativeTtl()).isEqualTo(Duration.ofSeconds(30));
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.nurkiewicz.webflux.demo;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Relays a body much larger than the heap available to the test from a local upstream through {@link ReactorController#exampleProxy}.
+ * Would fail with <code>OutOfMemoryError</code> (or <code>DataBufferLimitException</code>) if the proxy aggregated it.
+ */
+public class ProxyBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ProxyBenchmarkTest.class);
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNKS = 16 * 1024;
+
+    private DisposableServer upstream;
+    private ReactorController controller;
+
+    @Before
+    public void startUpstream() {
+        ByteBuf chunk = Unpooled.unreleasableBuffer(Unpooled.directBuffer(CHUNK_SIZE).writeZero(CHUNK_SIZE));
+        upstream = HttpServer
+                .create()
+                .port(0)
+                .route(routes -> routes.get("/large", (request, response) -> response
+                        .header(HttpHeaders.CONTENT_TYPE, "application/octet-stream")
+                        .header(HttpHeaders.CONTENT_LENGTH, String.valueOf((long) CHUNK_SIZE * CHUNKS))
+                        .header("X-Upstream", "local")
+                        .send(Flux.range(0, CHUNKS).map(i -> chunk.duplicate()))))
+                .bindNow();
+        controller = new ReactorController(WebClient.create(), URI.create("http://localhost:" + upstream.port() + "/large"));
+    }
+
+    @After
+    public void stopUpstream() {
+        upstream.disposeNow();
+    }
+
+    @Test
+    public void shouldStreamLargeBodyInConstantMemory() {
+        //given
+        AtomicLong bytes = new AtomicLong();
+        MockServerHttpResponse response = new MockServerHttpResponse();
+        response.setWriteHandler(body -> body
+                .doOnNext(buffer -> bytes.addAndGet(buffer.readableByteCount()))
+                .doOnNext(DataBufferUtils::release)
+                .then());
+
+        //when
+        long start = System.nanoTime();
+        controller.exampleProxy(MockServerHttpRequest.get("/proxy").build(), response).block();
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        //then
+        log.info("Relayed {}MiB in {}s: {}MiB/s",
+                bytes.get() >> 20,
+                String.format("%.2f", seconds),
+                Math.round((bytes.get() >> 20) / seconds));
+        assertThat(bytes).hasValue((long) CHUNK_SIZE * CHUNKS);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getFirst("X-Upstream")).isEqualTo("local");
+        assertThat(response.getHeaders().getContentLength()).isEqualTo((long) CHUNK_SIZE * CHUNKS);
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.nurkiewicz.webflux.demo;
+
+import java.net.URI;
+import java.time.Duration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+public class RateLimitedHandlerTest {
+
+    private final RateLimitingFilter filter = new RateLimitingFilter(new SimpleMeterRegistry(), 1, 1, Duration.ZERO);
+
+    @Test
+    public void shouldAnswerServiceUnavailableWithRetryAfter() {
+        //given
+        WebTestClient client = WebTestClient
+                .bindToController(new OutboundController(filter))
+                .controllerAdvice(new RateLimitedHandler())
+                .build();
+        client.get().uri("/outbound").exchange().expectStatus().isOk();
+
+        //when
+        WebTestClient.ResponseSpec rejected = client.get().uri("/outbound").exchange();
+
+        //then
+        rejected
+                .expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "1");
+    }
+
+    @RestController
+    static class OutboundController {
+
+        private final RateLimitingFilter filter;
+
+        OutboundController(RateLimitingFilter filter) {
+            this.filter = filter;
+        }
+
+        @GetMapping("/outbound")
+        Mono<String> outbound() {
+            ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("http://example.com")).build();
+            return filter
+                    .filter(request, r -> Mono.just(ClientResponse.create(HttpStatus.OK).build()))
+                    .map(response -> "OK");
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.nurkiewicz.webflux.demo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final TokenBucket bucket = new TokenBucket(10, 5, 0);
+
+    @Test
+    public void shouldLetBurstThroughImmediately() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(bucket.reserve(0, SECOND)).isZero();
+        }
+    }
+
+    @Test
+    public void shouldDelayRequestsOverBurst() {
+        //given
+        for (int i = 0; i < 5; i++) {
+            bucket.reserve(0, SECOND);
+        }
+
+        //when
+        long first = bucket.reserve(0, SECOND);
+        long second = bucket.reserve(0, SECOND);
+
+        //then
+        assertThat(first).isEqualTo(SECOND / 10);
+        assertThat(second).isEqualTo(2 * SECOND / 10);
+    }
+
+    @Test
+    public void shouldRejectWithoutReservingWhenWaitIsTooLong() {
+        //given
+        for (int i = 0; i < 5; i++) {
+            bucket.reserve(0, SECOND);
+        }
+
+        //when
+        long rejected = bucket.reserve(0, SECOND / 20);
+        long next = bucket.reserve(0, SECOND);
+
+        //then
+        assertThat(rejected).isEqualTo(TokenBucket.REJECTED);
+        assertThat(next).isEqualTo(SECOND / 10);
+    }
+
+    @Test
+    public void shouldRefillUpToBurst() {
+        //given
+        for (int i = 0; i < 5; i++) {
+            bucket.reserve(0, SECOND);
+        }
+
+        //when
+        long later = 10 * SECOND;
+
+        //then
+        for (int i = 0; i < 5; i++) {
+            assertThat(bucket.reserve(later, 0)).isZero();
+        }
+        assertThat(bucket.reserve(later, 0)).isEqualTo(TokenBucket.REJECTED);
+    }
+
+    @Test
+    public void shouldTellWaitWithoutReserving() {
+        //given
+        for (int i = 0; i < 5; i++) {
+            bucket.reserve(0, SECOND);
+        }
+
+        //when
+        long wait = bucket.waitNanos(0);
+
+        //then
+        assertThat(wait).isEqualTo(SECOND / 10);
+        assertThat(bucket.reserve(0, SECOND)).isEqualTo(SECOND / 10);
+    }
+
+}
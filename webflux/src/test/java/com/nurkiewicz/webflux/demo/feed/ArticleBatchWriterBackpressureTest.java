@@ -0,0 +1,85 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.mongodb.bulk.BulkWriteResult;
+import org.junit.After;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * {@link ArticleBatchWriter} with Mongo slower than ingestion, no database needed.
+ */
+public class ArticleBatchWriterBackpressureTest {
+
+    private final List<Article> written = new CopyOnWriteArrayList<>();
+    private ArticleBatchWriter writer;
+
+    @After
+    public void stop() {
+        writer.stop();
+    }
+
+    @Test
+    public void shouldWriteAllBatchesWhenManyAreWaiting() {
+        //given
+        writer = slowWriter(1000, Mono.delay(Duration.ofMillis(5)).then());
+        writer.start();
+
+        //when
+        for (int i = 0; i < 200; i++) {
+            writer.save(article(i));
+        }
+
+        //then
+        await().atMost(30, SECONDS).until(() -> written.size() == 200);
+        assertThat(written).extracting(Article::getTitle).startsWith("Article 0", "Article 1", "Article 2");
+    }
+
+    @Test
+    public void shouldDropOldestBatchesAndKeepWriting() {
+        //given
+        Sinks.Empty<Void> mongoBack = Sinks.empty();
+        writer = slowWriter(4, mongoBack.asMono());
+        writer.start();
+        for (int i = 0; i < 100; i++) {
+            writer.save(article(i));
+        }
+
+        //when
+        mongoBack.tryEmitEmpty();
+        writer.save(article(100));
+
+        //then
+        await().atMost(30, SECONDS).until(() -> written.stream().anyMatch(article -> article.getTitle().equals("Article 100")));
+        assertThat(written.size()).isLessThan(100);
+    }
+
+    /**
+     * Every batch of one article waits for <code>mongo</code> before it is written.
+     */
+    private ArticleBatchWriter slowWriter(int maxPendingBatches, Mono<Void> mongo) {
+        return new ArticleBatchWriter(null, null, 1, Duration.ofHours(1), "W1", maxPendingBatches) {
+            @Override
+            Mono<BulkWriteResult> write(List<Article> batch) {
+                return mongo
+                        .doOnSuccess(done -> written.addAll(batch))
+                        .then(Mono.empty());
+            }
+        };
+    }
+
+    private static Article article(int i) {
+        return new Article(URI.create("https://slow.example.com/" + i), Instant.EPOCH.plusSeconds(i), "Article " + i);
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.nurkiewicz.webflux.demo.IntegrationTest;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Throughput of {@link ArticleBatchWriter} compared to saving articles one by one,
+ * against Mongo started by {@link IntegrationTest}.
+ */
+public class ArticleBatchWriterTest extends IntegrationTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ArticleBatchWriterTest.class);
+
+    private static final int COUNT = 20_000;
+
+    //containers are reused between runs, every run writes under its own host
+    private final String run = String.valueOf(System.currentTimeMillis());
+
+    @Autowired
+    ArticleRepository articleRepository;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    NewArticlesLog newArticlesLog;
+
+    @Test
+    public void shouldStoreAllArticlesInBatches() {
+        //given
+        ArticleBatchWriter writer = new ArticleBatchWriter(mongoTemplate, newArticlesLog, 500, Duration.ofMillis(100), "W1");
+        writer.start();
+        List<Article> articles = articles("batch");
+
+        //when
+        long start = System.nanoTime();
+        articles.forEach(writer::save);
+        await().atMost(60, SECONDS).until(() -> count("batch") == COUNT);
+        long batched = System.nanoTime() - start;
+
+        //then
+        log.info("Batched: {} articles/s", COUNT * 1_000_000_000L / batched);
+        assertThat(count("batch")).isEqualTo(COUNT);
+    }
+
+    @Test
+    public void shouldUpsertExistingArticlesByLink() {
+        //given
+        ArticleBatchWriter writer = new ArticleBatchWriter(mongoTemplate, newArticlesLog, 100, Duration.ofMillis(50), "W1");
+        writer.start();
+        List<Article> articles = articles("upsert");
+        articles.forEach(writer::save);
+        await().atMost(60, SECONDS).until(() -> count("upsert") == COUNT);
+
+        //when
+        articles.forEach(writer::save);
+        writer.save(new Article(articles.get(0).getLink(), Instant.EPOCH, "Changed"));
+
+        //then
+        await().atMost(60, SECONDS).untilAsserted(() ->
+                assertThat(articleRepository.findById(articles.get(0).getLink()).block().getTitle()).isEqualTo("Changed"));
+        assertThat(count("upsert")).isEqualTo(COUNT);
+    }
+
+    @Test
+    public void oneByOneBaseline() {
+        //given
+        List<Article> articles = articles("single");
+
+        //when
+        long start = System.nanoTime();
+        Flux.fromIterable(articles)
+                .concatMap(articleRepository::save)
+                .blockLast();
+        long single = System.nanoTime() - start;
+
+        //then
+        log.info("One by one: {} articles/s", COUNT * 1_000_000_000L / single);
+        assertThat(count("single")).isEqualTo(COUNT);
+    }
+
+    private long count(String prefix) {
+        Query query = Query.query(Criteria.where("_id").regex("^https://" + prefix + "-" + run + "\\.example\\.com/"));
+        return mongoTemplate.count(query, Article.class).block();
+    }
+
+    private List<Article> articles(String prefix) {
+        Instant now = Instant.now();
+        return IntStream
+                .range(0, COUNT)
+                .mapToObj(i -> new Article(
+                        URI.create("https://" + prefix + "-" + run + ".example.com/" + i),
+                        now.minusSeconds(i),
+                        "Article " + i))
+                .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ArticleHashesTest {
+
+    private static final URI LINK = URI.create("https://example.com/post");
+
+    private final ArticleHashes articleHashes = new ArticleHashes(null, null, 100);
+
+    @Test
+    public void shouldTreatUnknownArticleAsChanged() {
+        assertThat(articleHashes.changed(article("Title", "Content"))).isTrue();
+    }
+
+    @Test
+    public void shouldSkipArticleStoredWithSameContent() {
+        //given
+        articleHashes.record(List.of(article("Title", "Content")));
+
+        //when
+        boolean changed = articleHashes.changed(article("Title", "Content"));
+
+        //then
+        assertThat(changed).isFalse();
+    }
+
+    @Test
+    public void shouldDetectEditedContent() {
+        //given
+        articleHashes.record(List.of(article("Title", "Content")));
+
+        //when
+        boolean changed = articleHashes.changed(article("Title", "Content, edited"));
+
+        //then
+        assertThat(changed).isTrue();
+    }
+
+    @Test
+    public void shouldKeepAtMostMaxSizeHashes() {
+        //given
+        ArticleHashes bounded = new ArticleHashes(null, null, 10);
+
+        //when
+        for (int i = 0; i < 1000; i++) {
+            URI link = URI.create("https://example.com/post-" + i);
+            bounded.record(List.of(new Article(link, Instant.EPOCH, "Title", ContentHash.of("Title", "Content " + i))));
+        }
+
+        //then
+        assertThat(bounded.size()).isLessThanOrEqualTo(10);
+    }
+
+    @Test
+    public void shouldIgnoreWhitespaceAndUnicodeComposition() {
+        assertThat(ContentHash.of("  Zażółć \n gęślą", "jaźń\t"))
+                .isEqualTo(ContentHash.of("Zażółć gęślą", "jaźń"))
+                //decomposed: letter followed by combining accent
+                .isEqualTo(ContentHash.of("Zaz\u0307o\u0301\u0142c\u0301 ge\u0328s\u0301la\u0328", "jaz\u0301n\u0301"));
+    }
+
+    @Test
+    public void shouldDistinguishTitleFromContent() {
+        assertThat(ContentHash.of("Reactor", "Flux")).isNotEqualTo(ContentHash.of("Reactor Flux", null));
+    }
+
+    private static Article article(String title, String content) {
+        return new Article(LINK, Instant.EPOCH, title, ContentHash.of(title, content));
+    }
+
+}
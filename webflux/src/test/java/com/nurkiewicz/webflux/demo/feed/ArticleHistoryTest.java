@@ -0,0 +1,102 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.mongodb.ExplainVerbosity;
+import com.nurkiewicz.webflux.demo.IntegrationTest;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ArticleHistoryTest extends IntegrationTest {
+
+    private static final int COUNT = 250;
+
+    //containers are reused between runs, every test writes far in the future, newer than (and not overlapping) previous ones
+    private final Instant newest = Instant.parse("3000-01-01T00:00:00Z").plusSeconds(System.currentTimeMillis() * 100);
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    ArticleHistory articleHistory;
+
+    private List<Article> articles;
+
+    @Before
+    public void insertArticles() {
+        articles = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            //ten articles share every publication date
+            articles.add(new Article(URI.create("https://history.example.com/" + newest.getEpochSecond() + "/" + i), newest.minusSeconds(i / 10), "Post " + i));
+        }
+        mongoTemplate.insertAll(articles).blockLast();
+        articleHistory.ensureIndex().block();
+    }
+
+    @Test
+    public void shouldPageThroughAllArticlesWithoutGapsOrDuplicates() {
+        //given
+        List<Article> expected = articles
+                .stream()
+                .sorted(NewestArticles.NEWEST_FIRST)
+                .collect(Collectors.toList());
+        List<Article> seen = new ArrayList<>();
+        Instant publishedDate = newest.plusSeconds(1);
+        URI link = null;
+
+        //when
+        while (seen.size() < COUNT) {
+            List<Article> page = articleHistory.after(publishedDate, link, 17).collectList().block();
+            assertThat(page).isNotEmpty();
+            for (Article article : page) {
+                if (seen.size() < COUNT) {
+                    seen.add(article);
+                }
+            }
+            publishedDate = page.get(page.size() - 1).getPublishedDate();
+            link = page.get(page.size() - 1).getLink();
+        }
+
+        //then
+        assertThat(links(seen)).containsExactlyElementsOf(links(expected));
+    }
+
+    @Test
+    public void shouldExamineOnlyOnePageOfDocumentsNoMatterHowDeep() {
+        //given
+        Article deep = articles.get(COUNT - 15);
+        Query query = ArticleHistory.query(deep.getPublishedDate(), deep.getLink(), 10);
+
+        //when
+        Document stats = mongoTemplate
+                .getCollection(mongoTemplate.getCollectionName(Article.class))
+                .flatMap(collection -> Mono.from(collection
+                        .find(query.getQueryObject())
+                        .sort(query.getSortObject())
+                        .limit(10)
+                        .explain(ExplainVerbosity.EXECUTION_STATS)))
+                .map(explain -> explain.get("executionStats", Document.class))
+                .block();
+
+        //then
+        assertThat(stats.getInteger("nReturned")).isEqualTo(10);
+        assertThat(stats.getInteger("totalDocsExamined")).isEqualTo(10);
+    }
+
+    private static List<URI> links(List<Article> articles) {
+        return articles.stream().map(Article::getLink).collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ArticleSearchIndexTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ArticleSearchIndexTest.class);
+
+    private final ArticleSearchIndex index = new ArticleSearchIndex(null);
+
+    @Test
+    public void shouldTokenizeTitle() {
+        assertThat(ArticleSearchIndex.tokenize("Reactor 3.4: Sinks, Flux & a Mono!"))
+                .containsExactly("reactor", "sinks", "flux", "mono");
+    }
+
+    @Test
+    public void shouldRankArticlesMatchingMoreTermsFirst() {
+        //given
+        index.add(article(1, "Spring WebFlux and Reactor"));
+        index.add(article(2, "Project Reactor internals"));
+        index.add(article(3, "Kotlin coroutines"));
+
+        //when
+        List<Article> found = index.search("webflux reactor", 10);
+
+        //then
+        assertThat(titles(found)).containsExactly("Spring WebFlux and Reactor", "Project Reactor internals");
+    }
+
+    @Test
+    public void shouldPreferRareTerms() {
+        //given
+        index.add(article(1, "Java streams"));
+        index.add(article(2, "Java records"));
+        index.add(article(3, "Java modules"));
+        index.add(article(4, "Reactive Java"));
+
+        //when
+        List<Article> found = index.search("reactive java", 1);
+
+        //then
+        assertThat(titles(found)).containsExactly("Reactive Java");
+    }
+
+    @Test
+    public void shouldReindexChangedTitle() {
+        //given
+        index.add(article(1, "Draft about Mono"));
+
+        //when
+        index.add(article(1, "Everything about Flux"));
+
+        //then
+        assertThat(index.search("mono", 10)).isEmpty();
+        assertThat(titles(index.search("flux", 10))).containsExactly("Everything about Flux");
+    }
+
+    @Test
+    public void shouldReturnNothingForZeroLimit() {
+        //given
+        index.add(article(1, "Reactor internals"));
+
+        //when
+        List<Article> found = index.search("reactor", 0);
+
+        //then
+        assertThat(found).isEmpty();
+    }
+
+    @Test
+    public void shouldNotOverflowOnHugeLimit() {
+        //given
+        index.add(article(1, "Reactor internals"));
+        index.add(article(2, "Reactor testing"));
+
+        //when
+        List<Article> found = index.search("reactor", Integer.MAX_VALUE);
+
+        //then
+        assertThat(titles(found)).containsExactly("Reactor testing", "Reactor internals");
+    }
+
+    @Test
+    public void shouldClampLimitOfSearchRequest() {
+        //given
+        for (int i = 0; i < 20; i++) {
+            index.add(article(i, "Reactor part " + i));
+        }
+        ArticlesController controller = new ArticlesController(null, null, index, null, 1000, 5);
+
+        //when
+        List<Article> huge = controller.search("reactor", Integer.MAX_VALUE).collectList().block();
+        List<Article> negative = controller.search("reactor", -1).collectList().block();
+
+        //then
+        assertThat(huge).hasSize(5);
+        assertThat(negative).isEmpty();
+    }
+
+    @Test
+    public void shouldEncodeLargeGaps() {
+        //given
+        ArticleSearchIndex.Postings postings = new ArticleSearchIndex.Postings();
+        int[] ids = {0, 1, 127, 128, 16_384, 2_000_000};
+
+        //when
+        for (int id : ids) {
+            postings.add(id);
+        }
+
+        //then
+        List<Integer> decoded = new ArrayList<>();
+        postings.forEach(decoded::add);
+        assertThat(decoded).containsExactly(0, 1, 127, 128, 16_384, 2_000_000);
+    }
+
+    @Test
+    public void shouldSearchManyArticlesQuickly() {
+        //given
+        String[] words = {"java", "reactor", "spring", "kotlin", "mongo", "redis", "netty", "flux", "mono",
+                "scheduler", "backpressure", "testing", "performance", "jvm", "gc", "streams", "http", "websocket"};
+        Random random = new Random(0);
+        for (int i = 0; i < 50_000; i++) {
+            StringBuilder title = new StringBuilder();
+            for (int w = 0; w < 6; w++) {
+                title.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            index.add(article(i, title.toString() + "post" + i));
+        }
+
+        //when
+        int queries = 1_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            index.search("backpressure post" + i, 10);
+        }
+        long micros = (System.nanoTime() - start) / 1_000 / queries;
+
+        //then
+        log.info("Average search time: {}us", micros);
+        assertThat(titles(index.search("post42", 10))).hasSize(1).allMatch(t -> t.endsWith("post42"));
+    }
+
+    private static List<String> titles(List<Article> articles) {
+        return articles.stream().map(Article::getTitle).collect(Collectors.toList());
+    }
+
+    private static Article article(int id, String title) {
+        return new Article(URI.create("https://example.com/" + id), Instant.EPOCH.plusSeconds(id), title);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import com.nurkiewicz.webflux.demo.IntegrationTest;
+import org.junit.Test;
+import reactor.test.StepVerifier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+public class ArticlesStreamTest extends IntegrationTest {
+
+    @Autowired
+    ArticlesStream articlesStream;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    NewArticlesLog newArticlesLog;
+
+    @Test
+    public void shouldPublishOnlyInsertedArticlesToAllSubscribers() {
+        //given
+        ArticleBatchWriter writer = new ArticleBatchWriter(mongoTemplate, newArticlesLog, 10, Duration.ofMillis(10), "W1");
+        Article existing = article("existing");
+        Article fresh = article("fresh");
+        writer.write(List.of(existing)).block();
+
+        //when
+        StepVerifier first = verifyInsertedOnly(existing, fresh);
+        StepVerifier second = verifyInsertedOnly(existing, fresh);
+        writer.write(List.of(existing, fresh)).block();
+
+        //then
+        first.verify(Duration.ofSeconds(10));
+        second.verify(Duration.ofSeconds(10));
+    }
+
+    /**
+     * Updating <code>existing</code> again must not publish it for the second time.
+     */
+    private StepVerifier verifyInsertedOnly(Article existing, Article fresh) {
+        return StepVerifier
+                .create(articlesStream
+                        .newArticles()
+                        .filter(a -> a.getLink().equals(existing.getLink()) || a.getLink().equals(fresh.getLink())))
+                .expectNextMatches(a -> a.getLink().equals(existing.getLink()))
+                .expectNextMatches(a -> a.getLink().equals(fresh.getLink()))
+                .expectNoEvent(Duration.ofSeconds(1))
+                .thenCancel()
+                .verifyLater();
+    }
+
+    private static Article article(String name) {
+        return new Article(
+                URI.create("https://" + name + System.nanoTime() + ".stream.example.com/"),
+                Instant.now(),
+                name);
+    }
+
+}
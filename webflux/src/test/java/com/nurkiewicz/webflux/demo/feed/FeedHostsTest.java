@@ -0,0 +1,213 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import static com.nurkiewicz.webflux.demo.feed.HostCircuitBreaker.State.CLOSED;
+import static com.nurkiewicz.webflux.demo.feed.HostCircuitBreaker.State.OPEN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FeedHostsTest {
+
+    private final MutableClock clock = new MutableClock();
+    private final FeedHosts feedHosts = new FeedHosts(clock, 3, Duration.ofMinutes(10), Duration.ofMinutes(30), Duration.ofMillis(200), Duration.ofSeconds(1),
+            Duration.ofMinutes(10), Duration.ofHours(12));
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    public void shouldSkipHostAfterConsecutiveFailures() {
+        //given
+        failTimes(3);
+
+        //when
+        String result = feedHosts.call("dead.example.com", ok()).block();
+
+        //then
+        assertThat(result).isNull();
+        assertThat(calls).hasValue(3);
+        HostCircuitBreaker.HostStatus status = feedHosts.status("dead.example.com").get();
+        assertThat(status.getState()).isEqualTo(OPEN);
+        assertThat(status.getSkipped()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCloseAfterSuccessfulProbe() {
+        //given
+        failTimes(3);
+        clock.advance(Duration.ofMinutes(10));
+
+        //when
+        String probe = feedHosts.call("dead.example.com", ok()).block();
+        String next = feedHosts.call("dead.example.com", ok()).block();
+
+        //then
+        assertThat(probe).isEqualTo("ok");
+        assertThat(next).isEqualTo("ok");
+        assertThat(feedHosts.status("dead.example.com").get().getState()).isEqualTo(CLOSED);
+    }
+
+    @Test
+    public void shouldBackOffLongerAfterFailedProbe() {
+        //given
+        failTimes(3);
+        clock.advance(Duration.ofMinutes(10));
+        feedHosts.call("dead.example.com", failing()).onErrorResume(e -> Mono.empty()).block();
+
+        //when
+        clock.advance(Duration.ofMinutes(19));
+        String beforeBackOff = feedHosts.call("dead.example.com", ok()).block();
+        clock.advance(Duration.ofMinutes(1));
+        String afterBackOff = feedHosts.call("dead.example.com", ok()).block();
+
+        //then
+        assertThat(beforeBackOff).isNull();
+        assertThat(afterBackOff).isEqualTo("ok");
+    }
+
+    @Test
+    public void shouldTreatSlowCallsAsFailures() {
+        //given
+        Mono<String> slow = ok().delayElement(Duration.ofMillis(300));
+
+        //when
+        for (int i = 0; i < 3; i++) {
+            assertThat(feedHosts.call("slow.example.com", slow).block()).isEqualTo("ok");
+        }
+
+        //then
+        HostCircuitBreaker.HostStatus status = feedHosts.status("slow.example.com").get();
+        assertThat(status.getState()).isEqualTo(OPEN);
+        assertThat(status.getSlow()).isEqualTo(3);
+        assertThat(status.getP99Millis()).isGreaterThanOrEqualTo(300);
+    }
+
+    @Test
+    public void shouldLetOnlyOneProbeThrough() {
+        //given
+        failTimes(3);
+        clock.advance(Duration.ofMinutes(10));
+        Mono<String> probe = feedHosts.call("dead.example.com", ok().delayElement(Duration.ofMillis(100)));
+
+        //when
+        probe.subscribe();
+        String concurrent = feedHosts.call("dead.example.com", ok()).block();
+
+        //then
+        assertThat(concurrent).isNull();
+    }
+
+    @Test
+    public void shouldNotCountClientErrorsAsHostFailures() {
+        //given
+        Mono<String> notFound = Mono.error(WebClientResponseException.create(404, "Not Found", null, null, null));
+        Mono<String> rateLimited = Mono.error(new IllegalStateException("Outbound rate limit exceeded"));
+
+        //when
+        for (int i = 0; i < 3; i++) {
+            feedHosts.call("gone.example.com", notFound).onErrorResume(e -> Mono.empty()).block();
+            feedHosts.call("gone.example.com", rateLimited).onErrorResume(e -> Mono.empty()).block();
+        }
+
+        //then
+        HostCircuitBreaker.HostStatus status = feedHosts.status("gone.example.com").get();
+        assertThat(status.getState()).isEqualTo(CLOSED);
+        assertThat(status.getFailures()).isZero();
+        assertThat(status.getIgnored()).isEqualTo(6);
+    }
+
+    @Test
+    public void shouldCountServerErrorsAsHostFailures() {
+        //given
+        Mono<String> unavailable = Mono.error(WebClientResponseException.create(503, "Service Unavailable", null, null, null));
+
+        //when
+        for (int i = 0; i < 3; i++) {
+            feedHosts.call("down.example.com", unavailable).onErrorResume(e -> Mono.empty()).block();
+        }
+
+        //then
+        assertThat(feedHosts.status("down.example.com").get().getState()).isEqualTo(OPEN);
+    }
+
+    @Test
+    public void shouldForgetLatenciesOfPreviousWindow() {
+        //given
+        feedHosts.call("slow.example.com", ok().delayElement(Duration.ofMillis(300))).block();
+        clock.advance(Duration.ofMinutes(10));
+
+        //when
+        feedHosts.call("slow.example.com", ok()).block();
+
+        //then
+        assertThat(feedHosts.status("slow.example.com").get().getMaxMillis()).isLessThan(300);
+    }
+
+    @Test
+    public void shouldEvictIdleHosts() {
+        //given
+        feedHosts.call("old.example.com", ok()).block();
+        clock.advance(Duration.ofHours(6));
+        feedHosts.call("new.example.com", ok()).block();
+
+        //when
+        clock.advance(Duration.ofHours(7));
+
+        //then
+        assertThat(feedHosts.status()).containsOnlyKeys("new.example.com");
+    }
+
+    private void failTimes(int times) {
+        for (int i = 0; i < times; i++) {
+            feedHosts.call("dead.example.com", failing()).onErrorResume(e -> Mono.empty()).block();
+        }
+    }
+
+    private Mono<String> ok() {
+        return Mono.fromCallable(() -> {
+            calls.incrementAndGet();
+            return "ok";
+        });
+    }
+
+    private Mono<String> failing() {
+        return Mono.defer(() -> {
+            calls.incrementAndGet();
+            return Mono.error(new IOException("Connection refused"));
+        });
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2022-03-01T10:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nurkiewicz.webflux.demo.IntegrationTest;
+import com.rometools.rome.feed.synd.SyndEntry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Whole ingestion pipeline ({@link FeedAggregator} with real {@link FeedReader}, Redis and Mongo)
+ * against {@link SyntheticFeeds} stubbing every blog from <code>feed-jvm-bloggers.xml</code> with a generated feed.
+ */
+public class FeedIngestionBenchmarkTest extends IntegrationTest {
+
+    private static final Logger log = LoggerFactory.getLogger(FeedIngestionBenchmarkTest.class);
+
+    @Value("${wiremock.server.port}")
+    int wireMockPort;
+
+    @Autowired
+    @Qualifier("feeds")
+    WebClient webClient;
+
+    @Autowired
+    RedisRepository redisRepository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    NewArticlesLog newArticlesLog;
+
+    private final Map<String, Long> fetchedAt = new ConcurrentHashMap<>();
+    private final Histogram fetchToStore = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 2);
+    private final AtomicLong storedEntries = new AtomicLong();
+    private FeedAggregator aggregator;
+    private Disposable monitoring;
+
+    @After
+    public void stop() {
+        if (aggregator != null) {
+            aggregator.close();
+        }
+        if (monitoring != null) {
+            monitoring.dispose();
+        }
+    }
+
+    @Test
+    public void shouldIngestAllSyntheticFeeds() {
+        //given
+        SyntheticFeeds feeds = new SyntheticFeeds(wireMockPort)
+                .latency(Duration.ofMillis(20), Duration.ofMillis(200))
+                .errorRate(0.05);
+        Path opml = feeds.stub("/feed-jvm-bloggers.xml");
+        aggregator = aggregator(opml, 32);
+
+        //when
+        long start = System.nanoTime();
+        aggregator.init();
+        long expected = (long) feeds.healthyFeeds() * SyntheticFeeds.ENTRIES_PER_FEED;
+        await().atMost(2, MINUTES).until(() -> storedEntries.get() >= expected);
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        //then
+        log.info("Ingested {} feeds ({} failing) in {}s: {} feeds/s, {} entries/s, fetch-to-store p50 {}ms p99 {}ms max {}ms",
+                feeds.healthyFeeds(),
+                feeds.failingFeeds(),
+                String.format("%.2f", seconds),
+                Math.round(feeds.healthyFeeds() / seconds),
+                Math.round(storedEntries.get() / seconds),
+                fetchToStore.getValueAtPercentile(50) / 1000.0,
+                fetchToStore.getValueAtPercentile(99) / 1000.0,
+                fetchToStore.getMaxValue() / 1000.0);
+        assertThat(storedEntries).hasValue(expected);
+        assertThat(fetchToStore.getTotalCount()).isEqualTo(expected);
+    }
+
+    private FeedAggregator aggregator(Path opml, int concurrency) {
+        //every stub lives on localhost, breaker per host would cut them all off after a few injected errors
+        FeedHosts feedHosts = new FeedHosts(Clock.systemUTC(), Integer.MAX_VALUE, Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofSeconds(10),
+                Duration.ofMinutes(10), Duration.ofHours(12));
+        FeedReader feedReader = new FeedReader(webClient, redisRepository, feedHosts, meterRegistry, DataSize.ofMegabytes(10)) {
+            @Override
+            public Flux<SyndEntry> fetch(URL url) {
+                return super
+                        .fetch(url)
+                        .doOnNext(entry -> fetchedAt.put(entry.getLink().trim(), System.nanoTime()));
+            }
+        };
+        ArticleBatchWriter writer = new ArticleBatchWriter(mongoTemplate, newArticlesLog, 500, Duration.ofMillis(100), "W1");
+        monitoring = writer
+                .stored()
+                .subscribe(batch -> batch.forEach(article -> {
+                    Long fetched = fetchedAt.remove(article.getLink().toString());
+                    if (fetched != null) {
+                        fetchToStore.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - fetched), fetchToStore.getHighestTrackableValue()));
+                        storedEntries.incrementAndGet();
+                    }
+                }));
+        writer.start();
+        //each feed polled once during the benchmark
+        FeedScheduler scheduler = new FeedScheduler(Schedulers.parallel(), Duration.ofHours(1), Duration.ofHours(1), Duration.ofHours(6), concurrency);
+        //not warmed up, every synthetic article is new anyway
+        ArticleHashes articleHashes = new ArticleHashes(mongoTemplate, writer, 100_000);
+        return new FeedAggregator(
+                new OpmlReader(opml.toString(), Duration.ofHours(1)),
+                feedReader,
+                writer,
+                new NewestArticles(null, 5000),
+                new ArticleSearchIndex(null),
+                scheduler,
+                articleHashes);
+    }
+
+}
@@ -5,25 +5,49 @@ import java.net.URL;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nurkiewicz.webflux.demo.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import reactor.core.publisher.Mono;
 
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 
 
 public class FeedReaderTest extends IntegrationTest {
 
     @Autowired
-    WebClient webClient
+    @Qualifier("feeds")
+    WebClient webClient;
+
+    @Autowired
+    RedisRepository redisRepository;
+
+    @Autowired
+    FeedHosts feedHosts;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${wiremock.server.port}")
+    int wireMockPort;
 
     @Test
     public void testGetAsync() throws MalformedURLException {
         //given
-        Mono<String> htmlMono = new FeedReader(webClient).getAsync(new URL("http://www.example.com"));
+        String path = "/example/" + System.nanoTime();
+        stubFor(get(urlEqualTo(path)).willReturn(aResponse().withBody("<html><h1>Example Domain</h1></html>")));
+        Mono<String> htmlMono = new FeedReader(webClient, redisRepository, feedHosts, meterRegistry, DataSize.ofMegabytes(10)).getAsync(new URL("http://localhost:" + wireMockPort + path));
 
         //when
         String html = htmlMono.block();
@@ -32,6 +56,21 @@ public class FeedReaderTest extends IntegrationTest {
         assertThat(html).contains("Example Domain");
     }
 
+    @Test
+    public void shouldFixAtomNamespaceWithoutDecodingBody() {
+        //given
+        String feed = "<feed xmlns=\"https://www.w3.org/2005/Atom\"><title>Zażółć</title><link href=\"https://www.w3.org/2005/Atom\"/></feed>";
+
+        byte[] body = feed.getBytes(UTF_8);
+
+        //when
+        byte[] fixed = FeedReader.applyAtomNamespaceFix(body);
+
+        //then
+        assertThat(new String(fixed, UTF_8)).isEqualTo(feed.replace("https://www.w3.org/2005/Atom", "http://www.w3.org/2005/Atom"));
+        assertThat(new String(body, UTF_8)).isEqualTo(feed);
+    }
+
     @Test
     public void test_8() throws Exception {
         final ObjectMapper objectMapper = new ObjectMapper();
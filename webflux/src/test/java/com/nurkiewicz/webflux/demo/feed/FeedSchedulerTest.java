@@ -0,0 +1,177 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.rometools.opml.feed.opml.Attribute;
+import com.rometools.opml.feed.opml.Outline;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FeedSchedulerTest {
+
+    private static final Logger log = LoggerFactory.getLogger(FeedSchedulerTest.class);
+
+    private final VirtualTimeScheduler virtualTime = VirtualTimeScheduler.create();
+    private final AtomicInteger polls = new AtomicInteger();
+    private Disposable polling;
+
+    @After
+    public void stopPolling() {
+        if (polling != null) {
+            polling.dispose();
+        }
+    }
+
+    @Test
+    public void shouldPollBusyFeedsMoreOftenThanQuietOnes() {
+        //given
+        FeedScheduler scheduler = new FeedScheduler(virtualTime, Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofHours(6), 64);
+        int feeds = 100_000;
+        for (int i = 0; i < feeds; i++) {
+            scheduler.add(outline(i));
+        }
+        polling = scheduler.start(this::simulatedFeed).subscribe();
+
+        //when
+        long start = System.nanoTime();
+        virtualTime.advanceTimeBy(Duration.ofDays(1));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        //then
+        log.info("{} polls of {} feeds in {}ms", polls.get(), feeds, millis);
+        assertThat(scheduler.size()).isEqualTo(feeds);
+        assertThat(scheduler.polls(url(0))).isBetween(150L, 200L);
+        assertThat(scheduler.interval(url(0))).isEqualTo(Duration.ofMinutes(7).plusSeconds(30));
+        assertThat(scheduler.polls(url(10))).isBetween(4L, 6L);
+        assertThat(scheduler.interval(url(10))).isEqualTo(Duration.ofHours(6));
+        assertThat(scheduler.polls(url(1))).isBetween(5L, 10L);
+        assertThat(scheduler.interval(url(1))).isEqualTo(Duration.ofHours(6));
+        assertThat(polls.get()).isLessThan(feeds * 12);
+    }
+
+    @Test
+    public void shouldNotExceedConcurrencyBudget() {
+        //given
+        FeedScheduler scheduler = new FeedScheduler(virtualTime, Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofHours(6), 8);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        for (int i = 0; i < 1000; i++) {
+            scheduler.add(outline(i));
+        }
+        polling = scheduler
+                .start(outline -> Mono
+                        .delay(Duration.ofSeconds(1), virtualTime)
+                        .doOnSubscribe(s -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                        //doFinally would run only after flatMap already started the next poll
+                        .doOnTerminate(inFlight::decrementAndGet)
+                        .thenMany(Flux.<Article>empty()))
+                .subscribe();
+
+        //when
+        virtualTime.advanceTimeBy(Duration.ofSeconds(124));
+        int pollsBefore = countPolled(scheduler, 1000);
+        virtualTime.advanceTimeBy(Duration.ofSeconds(1));
+
+        //then
+        assertThat(maxInFlight).hasValue(8);
+        assertThat(pollsBefore).isEqualTo(992);
+        assertThat(countPolled(scheduler, 1000)).isEqualTo(1000);
+    }
+
+    @Test
+    public void shouldStopPollingRemovedFeed() {
+        //given
+        FeedScheduler scheduler = new FeedScheduler(virtualTime, Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofHours(6), 4);
+        List<String> polled = new ArrayList<>();
+        scheduler.add(outline(0));
+        scheduler.add(outline(1));
+        polling = scheduler
+                .start(outline -> {
+                    polled.add(outline.getXmlUrl());
+                    return simulatedFeed(outline);
+                })
+                .subscribe();
+
+        //when
+        scheduler.remove(outline(0));
+        polled.clear();
+        virtualTime.advanceTimeBy(Duration.ofHours(1));
+
+        //then
+        assertThat(polled).isNotEmpty().doesNotContain(url(0));
+    }
+
+    @Test
+    public void shouldBackOffWhenNothingIsPublished() {
+        //given
+        FeedScheduler scheduler = new FeedScheduler(virtualTime, Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofHours(6), 4);
+
+        //when
+        Duration interval = scheduler.nextInterval(Duration.ofMinutes(5), List.of());
+
+        //then
+        assertThat(interval).isEqualTo(Duration.ofMinutes(10));
+    }
+
+    private static int countPolled(FeedScheduler scheduler, int feeds) {
+        int polled = 0;
+        for (int i = 0; i < feeds; i++) {
+            if (scheduler.polls(url(i)) > 0) {
+                polled++;
+            }
+        }
+        return polled;
+    }
+
+    /**
+     * Every 100th feed publishes every 15 minutes, every 10th once a day, remaining ones are dead.
+     */
+    private Flux<Article> simulatedFeed(Outline outline) {
+        polls.incrementAndGet();
+        int id = Integer.parseInt(outline.getTitle());
+        if (id % 100 == 0) {
+            return lastArticles(outline, Duration.ofMinutes(15));
+        }
+        if (id % 10 == 0) {
+            return lastArticles(outline, Duration.ofDays(1));
+        }
+        return Flux.empty();
+    }
+
+    private Flux<Article> lastArticles(Outline outline, Duration period) {
+        long now = virtualTime.now(TimeUnit.MILLISECONDS);
+        long newest = now - now % period.toMillis();
+        List<Article> articles = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Instant published = Instant.ofEpochMilli(newest).minus(period.multipliedBy(i));
+            articles.add(new Article(URI.create(outline.getXmlUrl() + "/" + published.toEpochMilli()), published, "Post"));
+        }
+        return Flux.fromIterable(articles);
+    }
+
+    private static Outline outline(int id) {
+        Outline outline = new Outline();
+        outline.setTitle(String.valueOf(id));
+        outline.getAttributes().add(new Attribute("xmlUrl", url(id)));
+        return outline;
+    }
+
+    private static String url(int id) {
+        return "https://blog" + id + ".example.com/feed";
+    }
+
+}
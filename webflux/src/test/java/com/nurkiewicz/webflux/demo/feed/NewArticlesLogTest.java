@@ -0,0 +1,76 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import com.nurkiewicz.webflux.demo.IntegrationTest;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class NewArticlesLogTest extends IntegrationTest {
+
+    @Autowired
+    NewArticlesLog newArticlesLog;
+
+    private final String run = "run" + System.nanoTime();
+
+    @Test
+    public void shouldTailOnlyArticlesAppendedAfterSubscription() {
+        //given
+        append("before");
+
+        //when
+        Flux<String> tail = titles(newArticlesLog.tail());
+
+        //then
+        StepVerifier.create(tail.take(1))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(500))
+                .then(() -> append("after"))
+                .expectNext("after")
+                .expectComplete()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    public void shouldStartAfreshOnEverySubscription() {
+        //given
+        Flux<String> tail = titles(newArticlesLog.tail());
+        StepVerifier.create(tail.take(1))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(500))
+                .then(() -> append("first"))
+                .expectNext("first")
+                .expectComplete()
+                .verify(Duration.ofSeconds(10));
+
+        //when
+        append("missed");
+
+        //then
+        StepVerifier.create(tail.take(1))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(500))
+                .then(() -> append("second"))
+                .expectNext("second")
+                .expectComplete()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    private Flux<String> titles(Flux<Article> articles) {
+        return articles
+                .filter(article -> article.getLink().getHost().startsWith(run))
+                .map(Article::getTitle);
+    }
+
+    private void append(String title) {
+        URI link = URI.create("https://" + run + "-" + title + ".log.example.com/");
+        newArticlesLog.append(List.of(new Article(link, Instant.now(), title))).block();
+    }
+
+}
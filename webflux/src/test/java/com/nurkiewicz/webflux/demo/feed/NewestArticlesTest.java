@@ -0,0 +1,67 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NewestArticlesTest {
+
+    private static final Instant NOW = Instant.parse("2022-03-03T12:00:00Z");
+
+    @Test
+    public void shouldReturnNewestFirst() {
+        //given
+        NewestArticles newestArticles = new NewestArticles(null, 10);
+        newestArticles.add(article("a", 3));
+        newestArticles.add(article("b", 1));
+        newestArticles.add(article("c", 2));
+
+        //when
+        List<Article> newest = newestArticles.newest(2);
+
+        //then
+        assertThat(titles(newest)).containsExactly("b", "c");
+    }
+
+    @Test
+    public void shouldEvictOldestWhenFull() {
+        //given
+        NewestArticles newestArticles = new NewestArticles(null, 3);
+
+        //when
+        for (int i = 0; i < 10; i++) {
+            newestArticles.add(article("a" + i, 10 - i));
+        }
+
+        //then
+        assertThat(titles(newestArticles.newest(100))).containsExactly("a9", "a8", "a7");
+    }
+
+    @Test
+    public void shouldReplaceArticleWithSameLink() {
+        //given
+        NewestArticles newestArticles = new NewestArticles(null, 10);
+        newestArticles.add(article("a", 5));
+        newestArticles.add(article("b", 3));
+
+        //when
+        newestArticles.add(new Article(URI.create("https://example.com/a"), NOW.minusSeconds(1), "a2"));
+
+        //then
+        assertThat(titles(newestArticles.newest(10))).containsExactly("a2", "b");
+    }
+
+    private static List<String> titles(List<Article> articles) {
+        return articles.stream().map(Article::getTitle).collect(Collectors.toList());
+    }
+
+    private static Article article(String name, int minutesAgo) {
+        return new Article(URI.create("https://example.com/" + name), NOW.minusSeconds(60L * minutesAgo), name);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.net.URI;
+import java.time.Duration;
+
+import com.google.common.base.Strings;
+import com.nurkiewicz.webflux.demo.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RedisRepositoryTest extends IntegrationTest {
+
+    @Autowired
+    ReactiveRedisConnectionFactory connectionFactory;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void shouldReturnCachedFeedBody() {
+        //given
+        RedisRepository repository = new RedisRepository(connectionFactory, meterRegistry, Duration.ofMinutes(1));
+        URI feed = URI.create("https://example.com/" + System.nanoTime() + "/feed.xml");
+        byte[] body = ("<rss>" + Strings.repeat("<item><title>Reactor</title></item>", 1000) + "</rss>").getBytes(UTF_8);
+
+        //when
+        byte[] missing = repository.findFeed(feed).block();
+        repository.saveFeed(feed, body).block();
+        byte[] cached = repository.findFeed(feed).block();
+
+        //then
+        assertThat(missing).isNull();
+        assertThat(cached).isEqualTo(body);
+        assertThat(meterRegistry.counter("feed.cache.requests", "result", "hit").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("feed.cache.requests", "result", "miss").count()).isEqualTo(1);
+        assertThat(meterRegistry.summary("feed.cache.bytes", "form", "compressed").totalAmount())
+                .isLessThan(meterRegistry.summary("feed.cache.bytes", "form", "raw").totalAmount() / 10);
+    }
+
+    @Test
+    public void shouldExpireCachedBody() throws InterruptedException {
+        //given
+        RedisRepository repository = new RedisRepository(connectionFactory, meterRegistry, Duration.ofSeconds(1));
+        URI feed = URI.create("https://example.com/" + System.nanoTime() + "/feed.xml");
+        repository.saveFeed(feed, "<rss/>".getBytes(UTF_8)).block();
+
+        //when
+        Thread.sleep(1500);
+
+        //then
+        assertThat(repository.findFeed(feed).block()).isNull();
+    }
+
+    @Test
+    public void shouldNotCacheLongerThanShortestPollInterval() {
+        assertThat(RedisRepository.cacheTtl(Duration.ofMinutes(10), Duration.ofMinutes(1))).isEqualTo(Duration.ofMinutes(1));
+        assertThat(RedisRepository.cacheTtl(Duration.ofSeconds(30), Duration.ofMinutes(1))).isEqualTo(Duration.ofSeconds(30));
+    }
+
+}
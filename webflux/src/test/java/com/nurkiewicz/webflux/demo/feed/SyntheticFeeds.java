@@ -0,0 +1,138 @@
+package com.nurkiewicz.webflux.demo.feed;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.http.Fault;
+import com.rometools.opml.feed.opml.Outline;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Serves synthetic RSS/Atom bodies from WireMock (started by {@link com.nurkiewicz.webflux.demo.IntegrationTest})
+ * for every outline of an OPML file, so ingestion can be exercised without network.
+ * <p>
+ * These are not recordings of the real blogs: every feed is rendered from one of two templates
+ * (<code>synthetic/atom.xml</code>, <code>synthetic/rss.xml</code>) chosen by outline type, with its own ids, links and title.
+ * Sizes, encodings and quirks of real feeds are therefore not covered, only the number of feeds and their latency.
+ * <p>
+ * Every stubbed feed has {@link #ENTRIES_PER_FEED} entries. Some feeds can be made to fail,
+ * the rest respond after a random delay.
+ */
+class SyntheticFeeds {
+
+    static final int ENTRIES_PER_FEED = 20;
+
+    private final int port;
+    //Redis cache and Mongo are reused between runs, every run serves its own URLs and links
+    private final String run = String.valueOf(System.currentTimeMillis());
+    private final Random random = new Random(0);
+    private Duration minLatency = Duration.ZERO;
+    private Duration maxLatency = Duration.ZERO;
+    private double errorRate;
+    private int healthyFeeds;
+    private int failingFeeds;
+
+    SyntheticFeeds(int port) {
+        this.port = port;
+    }
+
+    SyntheticFeeds latency(Duration min, Duration max) {
+        this.minLatency = min;
+        this.maxLatency = max;
+        return this;
+    }
+
+    /**
+     * Fraction of feeds that either reset the connection or respond with <code>503</code>.
+     */
+    SyntheticFeeds errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * Stubs all feeds from <code>opmlFile</code> and returns OPML file pointing to the stubs.
+     */
+    Path stub(String opmlFile) {
+        List<Outline> outlines = new OpmlReader(opmlFile).allFeedsStream().collectList().block();
+        StringBuilder opml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<opml version=\"1.0\"><body>\n");
+        for (int i = 0; i < outlines.size(); i++) {
+            Outline outline = outlines.get(i);
+            String path = "/synthetic/" + run + "/" + i;
+            stubFor(get(urlEqualTo(path)).willReturn(response(outline, run + "-" + i)));
+            opml
+                    .append("<outline type=\"").append(escape(outline.getType()))
+                    .append("\" title=\"").append(escape(outline.getTitle()))
+                    .append("\" xmlUrl=\"http://localhost:").append(port).append(path)
+                    .append("\"/>\n");
+        }
+        opml.append("</body></opml>\n");
+        try {
+            Path file = Files.createTempFile("synthetic", ".xml");
+            Files.writeString(file, opml);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int healthyFeeds() {
+        return healthyFeeds;
+    }
+
+    int failingFeeds() {
+        return failingFeeds;
+    }
+
+    private ResponseDefinitionBuilder response(Outline outline, String feed) {
+        if (random.nextDouble() < errorRate) {
+            failingFeeds++;
+            return random.nextBoolean() ?
+                    aResponse().withFault(Fault.CONNECTION_RESET_BY_PEER) :
+                    aResponse().withStatus(503);
+        }
+        healthyFeeds++;
+        boolean atom = "atom".equals(outline.getType());
+        String body = template(atom ? "/synthetic/atom.xml" : "/synthetic/rss.xml")
+                .replace("{{feed}}", feed)
+                .replace("{{title}}", escape(outline.getTitle()));
+        ResponseDefinitionBuilder response = aResponse()
+                .withHeader("Content-Type", atom ? "application/atom+xml; charset=UTF-8" : "application/rss+xml; charset=UTF-8")
+                .withBody(body);
+        if (maxLatency.isZero()) {
+            return response;
+        }
+        return response.withUniformRandomDelay((int) minLatency.toMillis(), (int) maxLatency.toMillis());
+    }
+
+    private static String template(String resource) {
+        try (InputStream stream = SyntheticFeeds.class.getResourceAsStream(resource)) {
+            return new String(stream.readAllBytes(), UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text
+                .replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace("\"", "&quot;");
+    }
+
+}
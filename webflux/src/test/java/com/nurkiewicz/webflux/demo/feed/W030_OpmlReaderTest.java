@@ -1,16 +1,26 @@
 package com.nurkiewicz.webflux.demo.feed;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 
 import com.rometools.opml.feed.opml.Outline;
-import org.junit.Ignore;
 import org.junit.Test;
 import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
 
+import static com.nurkiewicz.webflux.demo.feed.FeedChange.Type.ADDED;
+import static com.nurkiewicz.webflux.demo.feed.FeedChange.Type.REMOVED;
 import static org.assertj.core.api.Assertions.assertThat;
 
 /**
- * TODO (1) Return {@link OpmlReader#allFeeds()} as {@link Flux} in {@link OpmlReader#allFeedsStream()}, lazily
+ * TODO (1) Return feeds of OPML file as {@link Flux} in {@link OpmlReader#allFeedsStream()}, lazily
  */
 public class W030_OpmlReaderTest {
 
@@ -49,5 +59,109 @@ public class W030_OpmlReaderTest {
 		//no exception thrown
 	}
 
+	@Test
+	public void shouldFindFeedsNestedInCategories() {
+		//given
+		OpmlReader opmlReader = new OpmlReader("/feed-nested.xml");
+
+		//when
+		List<Outline> feeds = opmlReader.allFeedsStream().collectList().block();
+
+		//then
+		assertThat(feeds)
+				.extracting(Outline::getTitle)
+				.containsExactly("insidejava", "NoBlogDefFound", "High Scalability");
+		assertThat(feeds.get(0).getHtmlUrl()).isEqualTo("https://inside.java/");
+	}
+
+	@Test
+	public void shouldCacheParsedFeeds() throws IOException {
+		//given
+		Path file = copyOfNested();
+		OpmlReader opmlReader = new OpmlReader(file.toString());
+		opmlReader.allFeedsStream().blockLast();
+
+		//when
+		Files.delete(file);
+		List<Outline> cached = opmlReader.allFeedsStream().collectList().block();
+
+		//then
+		assertThat(cached).hasSize(3);
+	}
+
+	@Test
+	public void shouldReportAddedAndRemovedFeedsWhenFileChanges() {
+		//given
+		Path file = copyOfNested();
+		OpmlReader opmlReader = new OpmlReader(file.toString(), Duration.ofMillis(50));
+
+		//when
+		Flux<FeedChange> changes = opmlReader.changes();
+
+		//then
+		StepVerifier
+				.create(changes)
+				.expectNextMatches(change -> change.getType() == ADDED && change.getOutline().getTitle().equals("insidejava"))
+				.expectNextMatches(change -> change.getType() == ADDED && change.getOutline().getTitle().equals("NoBlogDefFound"))
+				.expectNextMatches(change -> change.getType() == ADDED && change.getOutline().getTitle().equals("High Scalability"))
+				.then(() -> rewrite(file, "https://inside.java/feed.xml", "https://example.com/feed.xml"))
+				.expectNextMatches(change -> change.getType() == REMOVED && change.getOutline().getXmlUrl().equals("https://inside.java/feed.xml"))
+				.expectNextMatches(change -> change.getType() == ADDED && change.getOutline().getXmlUrl().equals("https://example.com/feed.xml"))
+				.thenCancel()
+				.verify(Duration.ofSeconds(10));
+	}
+
+	@Test
+	public void shouldKeepPollingWhenFileIsNotThereYet() throws IOException {
+		//given
+		Path file = copyOfNested();
+		Path missing = file.resolveSibling(file.getFileName() + ".missing");
+		OpmlReader opmlReader = new OpmlReader(missing.toString(), Duration.ofMillis(50));
+
+		//when
+		Flux<FeedChange> changes = opmlReader.changes();
+
+		//then
+		StepVerifier
+				.create(changes)
+				.expectSubscription()
+				.expectNoEvent(Duration.ofMillis(200))
+				.then(() -> move(file, missing))
+				.expectNextCount(3)
+				.thenCancel()
+				.verify(Duration.ofSeconds(10));
+	}
+
+	private static Path copyOfNested() {
+		try (InputStream nested = W030_OpmlReaderTest.class.getResourceAsStream("/feed-nested.xml")) {
+			Path file = Files.createTempFile("feed-nested", ".xml");
+			Files.write(file, nested.readAllBytes());
+			return file;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Replaces <code>from</code> with <code>to</code> and moves modification time forward,
+	 * file systems with coarse timestamps would not notice quick rewrite otherwise.
+	 */
+	private static void rewrite(Path file, String from, String to) {
+		try {
+			Files.writeString(file, Files.readString(file).replace(from, to));
+			Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(60)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void move(Path from, Path to) {
+		try {
+			Files.move(from, to);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
 
 }
@@ -0,0 +1,76 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChatFrameTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatFrameTest.class);
+
+    private static final int SESSIONS = 10_000;
+
+    private final DataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+    private final String text = "Hello, world! ".repeat(300);
+
+    @Test
+    public void shouldGiveEverySessionIndependentViewOfTheSamePayload() {
+        //given
+        ChatFrame frame = ChatFrame.encode(42, text);
+
+        //when
+        WebSocketMessage first = frame.toMessage(bufferFactory);
+        first.getPayload().read(new byte[100]);
+        WebSocketMessage second = frame.toMessage(bufferFactory);
+
+        //then
+        assertThat(second.getPayloadAsText()).isEqualTo("42\t" + text);
+        assertThat(first.getPayload().readableByteCount()).isEqualTo(frame.size() - 100);
+    }
+
+    @Test
+    public void shouldEncodeOnceRegardlessOfNumberOfSessions() {
+        //given
+        ChatFrame frame = ChatFrame.encode(42, text);
+        //warm up both paths before measuring
+        broadcast(session -> frame.toMessage(bufferFactory));
+        broadcast(session -> new WebSocketMessage(WebSocketMessage.Type.TEXT, bufferFactory.wrap(text.getBytes(UTF_8))));
+
+        //when
+        long shared = broadcast(session -> frame.toMessage(bufferFactory));
+        long perSession = broadcast(session -> new WebSocketMessage(WebSocketMessage.Type.TEXT, bufferFactory.wrap(text.getBytes(UTF_8))));
+
+        //then
+        log.info("{}B message to {} sessions: {}KiB allocated when encoded once, {}KiB when encoded per session",
+                frame.size(), SESSIONS, shared >> 10, perSession >> 10);
+        assertThat(shared).isLessThan(perSession / 10);
+    }
+
+    /**
+     * @return bytes allocated by current thread while creating messages for all sessions
+     */
+    private static long broadcast(Function<Integer, WebSocketMessage> toMessage) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<WebSocketMessage> messages = new ArrayList<>(SESSIONS);
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int session = 0; session < SESSIONS; session++) {
+            messages.add(toMessage.apply(session));
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertThat(messages).hasSize(SESSIONS);
+        return allocated;
+    }
+
+}
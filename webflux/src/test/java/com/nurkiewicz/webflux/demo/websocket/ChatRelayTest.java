@@ -0,0 +1,157 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.nurkiewicz.webflux.demo.DemoApplication;
+import com.nurkiewicz.webflux.demo.InitDocker;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Three application contexts (nodes) sharing Redis started by {@link InitDocker}.
+ */
+public class ChatRelayTest {
+
+    private static final String PING = "ping";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+    private final Disposable.Composite members = Disposables.composite();
+    //Redis is reused between runs
+    private final String room = "relay-" + System.currentTimeMillis();
+
+    @BeforeClass
+    public static void init() {
+        InitDocker.start().block(Duration.ofMinutes(2));
+    }
+
+    @After
+    public void stopNodes() {
+        members.dispose();
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    public void shouldDeliverMessagesToMembersOnOtherNodesOnce() {
+        //given
+        ChatRooms first = startNode("node-1");
+        ChatRooms second = startNode("node-2");
+        ChatRooms third = startNode("node-3");
+        Queue<String> onFirst = join(first, room);
+        Queue<String> onSecond = join(second, room);
+        Queue<String> onThird = join(third, "other-" + room);
+        awaitRelay(first, second);
+        double batchesBefore = counter(0, "chat.relay.batches", "out");
+
+        //when
+        List<String> sent = IntStream
+                .range(0, 500)
+                .mapToObj(i -> "Message " + i)
+                .collect(Collectors.toList());
+        ChatRoom publisher = first.find(room).orElseThrow();
+        sent.forEach(publisher::publish);
+
+        //then
+        await().atMost(10, SECONDS).until(() -> withoutPings(onSecond).size() >= sent.size());
+        assertThat(withoutPings(onSecond)).containsExactlyElementsOf(sent);
+        assertThat(withoutPings(onFirst)).containsExactlyElementsOf(sent);
+        assertThat(onThird).isEmpty();
+        assertThat(nodes.get(2).getBean(ChatRelay.class).subscribedRooms()).doesNotContain(room);
+        assertThat(counter(0, "chat.relay.batches", "out") - batchesBefore).isLessThan(sent.size() / 5.0);
+        assertThat(nodes.get(0).getBean(MeterRegistry.class).get("chat.relay.skipped").counter().count()).isPositive();
+    }
+
+    @Test
+    public void shouldStopReceivingRoomWithoutLocalMembers() {
+        //given
+        ChatRooms first = startNode("node-1");
+        ChatRooms second = startNode("node-2");
+        join(first, room);
+        ChatRoom member = second.join(room);
+        awaitRelay(first, second);
+        double batchesBefore = counter(0, "chat.relay.batches", "out");
+
+        //when
+        second.leave(member);
+
+        //then
+        assertThat(nodes.get(1).getBean(ChatRelay.class).subscribedRooms()).doesNotContain(room);
+        assertThat(second.find(room)).isEmpty();
+    }
+
+    private ChatRooms startNode(String nodeId) {
+        Path logDir = folder.getRoot().toPath().resolve(nodeId);
+        ConfigurableApplicationContext node = new SpringApplicationBuilder(DemoApplication.class)
+                .properties(
+                        "server.port=0",
+                        "chat.relay.node-id=" + nodeId,
+                        "chat.log.dir=" + logDir)
+                .run();
+        nodes.add(node);
+        return node.getBean(ChatRooms.class);
+    }
+
+    private Queue<String> join(ChatRooms rooms, String name) {
+        Queue<String> received = new ConcurrentLinkedQueue<>();
+        members.add(rooms
+                .join(name)
+                .last(0, UnaryOperator.identity())
+                .map(ChatFrame::text)
+                .subscribe(received::add));
+        return received;
+    }
+
+    /**
+     * Subscriptions to Redis channels are asynchronous, publishes pings until a temporary member on the other node receives one.
+     */
+    private void awaitRelay(ChatRooms from, ChatRooms to) {
+        ChatRoom publisher = from.find(room).orElseThrow();
+        ChatRoom probe = to.join(room);
+        Queue<String> received = new ConcurrentLinkedQueue<>();
+        Disposable subscription = probe
+                .last(0, UnaryOperator.identity())
+                .map(ChatFrame::text)
+                .subscribe(received::add);
+        await().atMost(10, SECONDS).until(() -> {
+            publisher.publish(PING).block();
+            return !received.isEmpty();
+        });
+        subscription.dispose();
+        to.leave(probe);
+    }
+
+    private static List<String> withoutPings(Queue<String> received) {
+        return received
+                .stream()
+                .filter(message -> !message.equals(PING))
+                .collect(Collectors.toList());
+    }
+
+    private double counter(int node, String name, String direction) {
+        return nodes.get(node).getBean(MeterRegistry.class).get(name).tag("direction", direction).counter().count();
+    }
+
+}
@@ -0,0 +1,365 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.UnaryOperator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ChatRoomsTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatRoomsTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Disposable.Composite subscriptions = Disposables.composite();
+    private ChatRooms rooms;
+
+    @Before
+    public void openRooms() {
+        rooms = new ChatRooms(new ChatLog(folder.getRoot().toString(), DataSize.ofMegabytes(16)));
+    }
+
+    @After
+    public void unsubscribe() {
+        subscriptions.dispose();
+    }
+
+    @Test
+    public void shouldReclaimRoomWhenLastMemberLeaves() {
+        //given
+        ChatRoom first = rooms.join("jvm");
+        ChatRoom second = rooms.join("jvm");
+
+        //when
+        rooms.leave(first);
+        int membersLeft = rooms.members("jvm");
+        rooms.leave(second);
+
+        //then
+        assertThat(second).isSameAs(first);
+        assertThat(membersLeft).isEqualTo(1);
+        assertThat(rooms.size()).isZero();
+        assertThat(rooms.join("jvm")).isNotSameAs(first);
+    }
+
+    @Test
+    public void shouldReplayLastMessagesOnlyOfJoinedRoom() {
+        //given
+        ChatRoom jvm = rooms.join("jvm");
+        ChatRoom js = rooms.join("js");
+        for (int i = 0; i < 10; i++) {
+            jvm.publish("jvm " + i).block();
+            js.publish("js " + i).block();
+        }
+
+        //when
+        List<String> received = new ArrayList<>();
+        subscriptions.add(rooms.join("jvm").last(5, UnaryOperator.identity()).map(ChatFrame::text).subscribe(received::add));
+
+        //then
+        assertThat(received).containsExactly("jvm 5", "jvm 6", "jvm 7", "jvm 8", "jvm 9");
+    }
+
+    @Test
+    public void shouldKeepHistoryOfReclaimedRoom() {
+        //given
+        ChatRoom room = rooms.join("jvm");
+        for (int i = 0; i < 10; i++) {
+            room.publish("jvm " + i).block();
+        }
+        rooms.leave(room);
+
+        //when
+        List<String> received = new ArrayList<>();
+        subscriptions.add(rooms.join("jvm").since(8, UnaryOperator.identity()).map(ChatFrame::text).subscribe(received::add));
+
+        //then
+        assertThat(received).containsExactly("jvm 7", "jvm 8", "jvm 9");
+    }
+
+    @Test
+    public void shouldBoundLiveMessagesArrivingDuringReplay() {
+        //given
+        ChatRoom room = rooms.join("jvm");
+        for (int i = 0; i < 5; i++) {
+            room.publish("history " + i).block();
+        }
+        List<String> received = new ArrayList<>();
+        BaseSubscriber<String> slowMember = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                request(1);
+            }
+
+            @Override
+            protected void hookOnNext(String text) {
+                received.add(text);
+            }
+        };
+        room
+                .since(1, live -> live.onBackpressureBuffer(3, dropped -> {
+                }, BufferOverflowStrategy.DROP_OLDEST))
+                .map(ChatFrame::text)
+                .subscribe(slowMember);
+        subscriptions.add(slowMember);
+
+        //when
+        for (int i = 0; i < 10_000; i++) {
+            room.publish("live " + i).block();
+        }
+        slowMember.requestUnbounded();
+
+        //then
+        assertThat(received)
+                .startsWith("history 0", "history 1", "history 2", "history 3", "history 4")
+                .endsWith("live 9999")
+                .hasSizeLessThan(5 + 10);
+    }
+
+    @Test
+    public void shouldIgnoreMessagesDeliveredToReclaimedRoom() {
+        //given
+        ChatRoom stale = rooms.join("jvm");
+        stale.publish("before").block();
+        rooms.leave(stale);
+        ChatRoom reopened = rooms.join("jvm");
+
+        //when
+        stale.deliver("relayed late").block();
+        reopened.publish("after").block();
+
+        //then
+        List<String> received = new ArrayList<>();
+        subscriptions.add(rooms.join("jvm").last(10, UnaryOperator.identity()).map(ChatFrame::text).subscribe(received::add));
+        assertThat(received).containsExactly("before", "after");
+    }
+
+    @Test
+    public void shouldAppendOffPublishingThread() throws IOException {
+        //given
+        Scheduler appender = Schedulers.newSingle("test-appender");
+        ChatRooms offloaded = new ChatRooms(new ChatLog(folder.newFolder().toString(), DataSize.ofMegabytes(1)), 128, Duration.ofHours(1), appender);
+        ChatRoom room = offloaded.join("jvm");
+        List<String> threads = new ArrayList<>();
+        subscriptions.add(room.last(0, UnaryOperator.identity()).subscribe(frame -> threads.add(Thread.currentThread().getName())));
+
+        //when
+        room.publish("Hello").block();
+
+        //then
+        assertThat(threads).hasSize(1).allMatch(thread -> thread.startsWith("test-appender"));
+        offloaded.close();
+    }
+
+    @Test
+    public void shouldKeepRoomLogAcrossReopening() throws IOException {
+        //given
+        ChatLog chatLog = new ChatLog(folder.newFolder().toString(), DataSize.ofMegabytes(1));
+
+        //when
+        RoomLog first = chatLog.open("jvm");
+        RoomLog second = chatLog.open("jvm");
+
+        //then
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    public void shouldRefuseTooLongRoomName() {
+        //given
+        String name = "x".repeat(129);
+
+        //when
+        boolean valid = rooms.validName(name);
+
+        //then
+        assertThat(valid).isFalse();
+        assertThatThrownBy(() -> rooms.join(name)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldSweepExpiredHistoryOfRoomsNotOpen() throws IOException {
+        //given
+        ChatRooms expiring = new ChatRooms(new ChatLog(folder.newFolder().toString(), DataSize.ofKilobytes(1), Duration.ZERO, 16));
+        ChatRoom closed = expiring.join("closed");
+        ChatRoom open = expiring.join("open");
+        for (int i = 0; i < 100; i++) {
+            closed.publish("closed " + i).block();
+            open.publish("open " + i).block();
+        }
+        expiring.leave(closed);
+
+        //when
+        expiring.sweep();
+
+        //then
+        List<String> received = new ArrayList<>();
+        subscriptions.add(open.last(1, UnaryOperator.identity()).map(ChatFrame::text).subscribe(received::add));
+        assertThat(received).containsExactly("open 99");
+        assertThat(expiring.join("closed").last(10, UnaryOperator.identity()).take(Duration.ofMillis(100)).collectList().block()).isEmpty();
+    }
+
+    @Test
+    public void shouldRefuseLogDirectoryAlreadyInUse() {
+        assertThatThrownBy(() -> new ChatLog(folder.getRoot().toString(), DataSize.ofMegabytes(16)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("chat.log.dir");
+    }
+
+    @Test
+    public void shouldNotTouchOtherSessionsWhenPublishingToSmallRoom() {
+        //given
+        AtomicLong deliveries = new AtomicLong();
+        for (int i = 0; i < 10_000; i++) {
+            subscribe(rooms.join("room-" + i), deliveries);
+        }
+        List<ChatRoom> small = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            small.add(rooms.join("small"));
+            subscribe(small.get(i), deliveries);
+        }
+
+        //when
+        small.get(0).publish("Hello").block();
+
+        //then
+        assertThat(rooms.size()).isEqualTo(10_001);
+        assertThat(deliveries).hasValue(10);
+    }
+
+    @Test
+    public void shouldNotLoseMessagesPublishedConcurrentlyToTheSameRoom() {
+        //given
+        ChatRoom room = rooms.join("busy");
+        AtomicLong deliveries = new AtomicLong();
+        subscribe(room, deliveries);
+        int publishers = Runtime.getRuntime().availableProcessors();
+        int messages = 100_000;
+
+        //when
+        publish(publishers, messages, publisher -> room);
+
+        //then
+        assertThat(deliveries).hasValue((long) publishers * messages);
+    }
+
+    @Test
+    public void shouldPublishToSeparateRoomsInParallel() {
+        //given
+        int cores = Runtime.getRuntime().availableProcessors();
+        int messages = 500_000;
+        AtomicLong deliveries = new AtomicLong();
+        List<ChatRoom> perCore = new ArrayList<>();
+        for (int i = 0; i < cores; i++) {
+            perCore.add(rooms.join("core-" + i));
+            subscribe(perCore.get(i), deliveries);
+        }
+
+        //when
+        long singleRoom = publish(cores, messages / cores, publisher -> perCore.get(0));
+        long roomPerCore = publish(cores, messages / cores, perCore::get);
+
+        //then
+        log.info("{} messages from {} publishers: single room {}ms, room per publisher {}ms",
+                messages, cores, singleRoom, roomPerCore);
+        assertThat(deliveries).hasValue(2L * cores * (messages / cores));
+    }
+
+    @Test
+    public void shouldTakeRoomFromUri() {
+        assertThat(ChatHandler.roomFromUri(URI.create("ws://localhost:8080/chat?room=jvm"))).contains("jvm");
+        assertThat(ChatHandler.roomFromUri(URI.create("ws://localhost:8080/chat?room="))).isEmpty();
+        assertThat(ChatHandler.roomFromUri(URI.create("ws://localhost:8080/chat"))).isEmpty();
+    }
+
+    @Test
+    public void shouldFallBackToDefaultHistoryForInvalidParameters() {
+        //given
+        ChatRoom room = rooms.join("jvm");
+        for (int i = 1; i <= 10; i++) {
+            room.publish("jvm " + i).block();
+        }
+
+        //when
+        List<String> malformedSince = history(room, "?since=abc");
+        List<String> zeroSince = history(room, "?since=0");
+        List<String> negativeSince = history(room, "?since=-5");
+        List<String> negativeLast = history(room, "?last=-1");
+        List<String> overflowingLast = history(room, "?last=99999999999");
+        List<String> zeroLast = history(room, "?last=0");
+
+        //then
+        List<String> defaultHistory = List.of("jvm 6", "jvm 7", "jvm 8", "jvm 9", "jvm 10");
+        assertThat(malformedSince).isEqualTo(defaultHistory);
+        assertThat(zeroSince).isEqualTo(defaultHistory);
+        assertThat(negativeSince).isEqualTo(defaultHistory);
+        assertThat(negativeLast).isEqualTo(defaultHistory);
+        assertThat(overflowingLast).isEqualTo(defaultHistory);
+        assertThat(zeroLast).isEmpty();
+    }
+
+    private List<String> history(ChatRoom room, String query) {
+        URI uri = URI.create("ws://localhost:8080/chat" + query);
+        return ChatHandler
+                .history(room, uri, UnaryOperator.identity())
+                .map(ChatFrame::text)
+                .take(Duration.ofMillis(100))
+                .collectList()
+                .block();
+    }
+
+    private void subscribe(ChatRoom room, AtomicLong deliveries) {
+        subscriptions.add(room.last(0, UnaryOperator.identity()).subscribe(message -> deliveries.incrementAndGet()));
+    }
+
+    /**
+     * @return time in milliseconds
+     */
+    private static long publish(int publishers, int messages, IntFunction<ChatRoom> room) {
+        //publishers block on each message, which parallel scheduler refuses
+        Scheduler scheduler = Schedulers.newBoundedElastic(publishers, Integer.MAX_VALUE, "publisher");
+        long start = System.nanoTime();
+        Flux
+                .range(0, publishers)
+                .parallel(publishers)
+                .runOn(scheduler)
+                .doOnNext(publisher -> {
+                    ChatRoom target = room.apply(publisher);
+                    for (int i = 0; i < messages; i++) {
+                        target.publish("Message " + i).block();
+                    }
+                })
+                .sequential()
+                .blockLast();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        scheduler.dispose();
+        return millis;
+    }
+
+}
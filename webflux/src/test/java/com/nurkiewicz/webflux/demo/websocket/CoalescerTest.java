@@ -0,0 +1,118 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CoalescerTest {
+
+    private static final Logger log = LoggerFactory.getLogger(CoalescerTest.class);
+
+    private final VirtualTimeScheduler virtualTime = VirtualTimeScheduler.create();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Coalescer coalescer = new Coalescer(meterRegistry, true, Duration.ofMillis(5), 100, virtualTime);
+    private final Sinks.Many<String> source = Sinks.many().multicast().directBestEffort();
+    private final List<List<String>> batches = new ArrayList<>();
+    private Disposable subscription;
+
+    @After
+    public void unsubscribe() {
+        subscription.dispose();
+        virtualTime.dispose();
+    }
+
+    @Test
+    public void shouldEmitMessagesArrivingWithinWindowTogether() {
+        //given
+        subscribe();
+
+        //when
+        source.tryEmitNext("a");
+        virtualTime.advanceTimeBy(Duration.ofMillis(2));
+        source.tryEmitNext("b");
+        virtualTime.advanceTimeBy(Duration.ofMillis(2));
+        int beforeWindow = batches.size();
+        virtualTime.advanceTimeBy(Duration.ofMillis(1));
+
+        //then
+        assertThat(beforeWindow).isZero();
+        assertThat(batches).containsExactly(List.of("a", "b"));
+    }
+
+    @Test
+    public void shouldEmitImmediatelyWhenSizeLimitReached() {
+        //given
+        subscribe();
+
+        //when
+        source.tryEmitNext("x".repeat(60));
+        source.tryEmitNext("y".repeat(60));
+        source.tryEmitNext("z");
+        virtualTime.advanceTimeBy(Duration.ofMillis(5));
+
+        //then
+        assertThat(batches).containsExactly(List.of("x".repeat(60), "y".repeat(60)), List.of("z"));
+    }
+
+    @Test
+    public void shouldFlushRemainingMessagesOnComplete() {
+        //given
+        subscribe();
+
+        //when
+        source.tryEmitNext("a");
+        source.tryEmitComplete();
+
+        //then
+        assertThat(batches).containsExactly(List.of("a"));
+    }
+
+    @Test
+    public void shouldReduceFlushesOfBurstyTrafficAtBoundedLatency() {
+        //given
+        subscribe();
+        int messages = 0;
+
+        //when
+        for (int burst = 0; burst < 100; burst++) {
+            //burst of 20 messages, 1ms apart, then silence
+            for (int i = 0; i < 20; i++) {
+                source.tryEmitNext("Message " + messages++);
+                virtualTime.advanceTimeBy(Duration.ofMillis(1));
+            }
+            virtualTime.advanceTimeBy(Duration.ofMillis(100));
+        }
+
+        //then
+        Timer delay = meterRegistry.get("websocket.coalesce.delay").timer();
+        HistogramSnapshot snapshot = delay.takeSnapshot();
+        log.info("{} messages in {} flushes ({}x fewer), added latency mean {}ms max {}ms",
+                messages, batches.size(), messages / batches.size(),
+                snapshot.mean(TimeUnit.MILLISECONDS), snapshot.max(TimeUnit.MILLISECONDS));
+        assertThat(batches.stream().mapToInt(List::size).sum()).isEqualTo(messages);
+        assertThat(batches.size()).isLessThanOrEqualTo(messages / 4);
+        assertThat(delay.max(TimeUnit.MILLISECONDS)).isLessThanOrEqualTo(5);
+    }
+
+    private void subscribe() {
+        subscription = coalescer
+                .coalesce("chat", source.asFlux(), String::length)
+                .subscribe(batches::add);
+    }
+
+}
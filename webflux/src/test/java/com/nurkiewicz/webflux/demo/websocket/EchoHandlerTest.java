@@ -0,0 +1,80 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+public class EchoHandlerTest {
+
+    private final DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+    private final List<WebSocketMessage> sent = new ArrayList<>();
+
+    @Test
+    public void shouldRelaySamePayloadWithoutDecoding() {
+        //given
+        DataBuffer binary = bufferFactory.wrap(new byte[]{0, 1, 2, (byte) 0xFF});
+        DataBuffer text = bufferFactory.wrap("Hello".getBytes(UTF_8));
+        WebSocketSession session = session(
+                new WebSocketMessage(WebSocketMessage.Type.BINARY, binary),
+                new WebSocketMessage(WebSocketMessage.Type.TEXT, text),
+                new WebSocketMessage(WebSocketMessage.Type.PING, bufferFactory.wrap(new byte[0])));
+
+        //when
+        new EchoHandler(false, Duration.ZERO, false).handle(session).block();
+
+        //then
+        assertThat(sent).hasSize(2);
+        assertThat(sent.get(0).getType()).isEqualTo(WebSocketMessage.Type.BINARY);
+        assertThat(sent.get(0).getPayload()).isSameAs(binary);
+        assertThat(sent.get(1).getType()).isEqualTo(WebSocketMessage.Type.TEXT);
+        assertThat(sent.get(1).getPayload()).isSameAs(text);
+    }
+
+    @Test
+    public void shouldUpperCaseTextOnlyWhenAskedTo() {
+        //given
+        DataBuffer binary = bufferFactory.wrap("binary".getBytes(UTF_8));
+        WebSocketSession session = session(
+                new WebSocketMessage(WebSocketMessage.Type.TEXT, bufferFactory.wrap("Hello".getBytes(UTF_8))),
+                new WebSocketMessage(WebSocketMessage.Type.BINARY, binary));
+
+        //when
+        new EchoHandler(true, Duration.ofMillis(10), true).handle(session).block();
+
+        //then
+        assertThat(sent).hasSize(2);
+        assertThat(sent.get(0).getPayloadAsText()).isEqualTo("HELLO");
+        assertThat(sent.get(1).getPayload()).isSameAs(binary);
+    }
+
+    @SuppressWarnings("unchecked")
+    private WebSocketSession session(WebSocketMessage... inbound) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        given(session.getId()).willReturn("s1");
+        given(session.bufferFactory()).willReturn(bufferFactory);
+        given(session.receive()).willReturn(Flux.just(inbound));
+        given(session.textMessage(any())).willAnswer(invocation ->
+                new WebSocketMessage(WebSocketMessage.Type.TEXT, bufferFactory.wrap(invocation.<String>getArgument(0).getBytes(UTF_8))));
+        given(session.send(any())).willAnswer(invocation -> Flux
+                .from(invocation.<Publisher<WebSocketMessage>>getArgument(0))
+                .doOnNext(sent::add)
+                .then());
+        return session;
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactivestreams.Publisher;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+public class HeartbeatTest {
+
+    private static final Duration INTERVAL = Duration.ofSeconds(15);
+    private static final Duration IDLE_TIMEOUT = Duration.ofSeconds(45);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final VirtualTimeScheduler virtualTime = VirtualTimeScheduler.create();
+    private final DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+    private final Disposable.Composite subscriptions = Disposables.composite();
+    private final List<WebSocketMessage> sent = new ArrayList<>();
+    private final List<WebSocketMessage> handled = new ArrayList<>();
+    private final List<CloseStatus> closed = new ArrayList<>();
+    private Presence presence;
+
+    @Before
+    public void createPresence() throws IOException {
+        presence = presence(100);
+    }
+
+    @After
+    public void unsubscribe() {
+        subscriptions.dispose();
+    }
+
+    @Test
+    public void shouldPingAndReapSilentSession() {
+        //given
+        WebSocketHandler handler = heartbeat().decorate("chat", this::receiveAndSendNothing);
+        AtomicBoolean finished = new AtomicBoolean();
+        subscriptions.add(handler.handle(session(Flux.never())).doFinally(signal -> finished.set(true)).subscribe());
+
+        //when
+        virtualTime.advanceTimeBy(IDLE_TIMEOUT.minusSeconds(1));
+        List<CloseStatus> closedBeforeTimeout = new ArrayList<>(closed);
+        virtualTime.advanceTimeBy(Duration.ofMinutes(5));
+
+        //then
+        assertThat(closedBeforeTimeout).isEmpty();
+        assertThat(closed).containsExactly(CloseStatus.GOING_AWAY.withReason("Idle"));
+        assertThat(sent).hasSize(3).allMatch(message -> message.getType() == WebSocketMessage.Type.PING);
+        assertThat(finished).isTrue();
+        assertThat(presence.sessions()).containsEntry("chat", 0);
+    }
+
+    @Test
+    public void shouldKeepSessionAnsweringPings() {
+        //given
+        WebSocketHandler handler = heartbeat().decorate("chat", this::receiveAndSendNothing);
+        Flux<WebSocketMessage> pongs = Flux
+                .interval(INTERVAL, virtualTime)
+                .map(tick -> new WebSocketMessage(WebSocketMessage.Type.PONG, bufferFactory.wrap(new byte[0])));
+        subscriptions.add(handler.handle(session(pongs)).subscribe());
+
+        //when
+        virtualTime.advanceTimeBy(Duration.ofHours(1));
+
+        //then
+        assertThat(closed).isEmpty();
+        assertThat(handled).isEmpty();
+        assertThat(sent).hasSize(240);
+        assertThat(presence.sessions()).containsEntry("chat", 1);
+    }
+
+    @Test
+    public void shouldRejectSessionsBeyondLimit() throws IOException {
+        //given
+        presence = presence(2);
+        WebSocketHandler handler = heartbeat().decorate("time", this::receiveAndSendNothing);
+        subscriptions.add(handler.handle(session(Flux.never())).subscribe());
+        subscriptions.add(handler.handle(session(Flux.never())).subscribe());
+
+        //when
+        handler.handle(session(Flux.never())).block();
+
+        //then
+        assertThat(closed).containsExactly(CloseStatus.SERVICE_OVERLOAD.withReason("Too many sessions"));
+        assertThat(presence.total()).isEqualTo(2);
+        assertThat(presence.sessions()).containsEntry("time", 2);
+    }
+
+    private Mono<Void> receiveAndSendNothing(WebSocketSession session) {
+        return session
+                .send(Flux.never())
+                .and(session.receive().doOnNext(handled::add).then());
+    }
+
+    private Heartbeat heartbeat() {
+        return new Heartbeat(presence, new SimpleMeterRegistry(), INTERVAL, IDLE_TIMEOUT, virtualTime);
+    }
+
+    private Presence presence(int maxSessions) throws IOException {
+        ChatRooms chatRooms = new ChatRooms(new ChatLog(folder.newFolder().toString(), DataSize.ofMegabytes(16)));
+        return new Presence(chatRooms, new SimpleMeterRegistry(), maxSessions);
+    }
+
+    @SuppressWarnings("unchecked")
+    private WebSocketSession session(Flux<WebSocketMessage> inbound) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        given(session.getId()).willReturn("s1");
+        given(session.bufferFactory()).willReturn(bufferFactory);
+        given(session.receive()).willReturn(inbound);
+        given(session.pingMessage(any())).willAnswer(invocation -> new WebSocketMessage(
+                WebSocketMessage.Type.PING,
+                invocation.<Function<DataBufferFactory, DataBuffer>>getArgument(0).apply(bufferFactory)));
+        given(session.send(any())).willAnswer(invocation -> Flux
+                .from(invocation.<Publisher<WebSocketMessage>>getArgument(0))
+                .doOnNext(sent::add)
+                .then());
+        given(session.close(any())).willAnswer(invocation -> {
+            closed.add(invocation.getArgument(0));
+            return Mono.empty();
+        });
+        return session;
+    }
+
+}
@@ -0,0 +1,220 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import reactor.test.StepVerifier;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class RoomLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReplayRangeSpanningManySegments() {
+        //given
+        RoomLog log = new RoomLog(folder.getRoot().toPath(), 1024);
+        List<String> texts = IntStream
+                .rangeClosed(1, 1000)
+                .mapToObj(i -> "Message " + i)
+                .collect(Collectors.toList());
+        texts.forEach(log::append);
+
+        //when
+        List<String> replayed = log.range(100, 899).map(ChatFrame::text).collectList().block();
+
+        //then
+        assertThat(log.lastSeq()).isEqualTo(1000);
+        assertThat(folder.getRoot().listFiles()).hasSizeGreaterThan(10);
+        assertThat(replayed).containsExactlyElementsOf(texts.subList(99, 899));
+    }
+
+    @Test
+    public void shouldBroadcastFramesStraightFromMapping() {
+        //given
+        RoomLog log = new RoomLog(folder.getRoot().toPath(), 1024);
+
+        //when
+        ChatFrame frame = log.append("Hello");
+
+        //then
+        assertThat(frame.payload().isDirect()).isTrue();
+        assertThat(frame.seq()).isEqualTo(1);
+        assertThat(frame.text()).isEqualTo("Hello");
+    }
+
+    @Test
+    public void shouldReplayOnlyAsFastAsRequested() {
+        //given
+        RoomLog log = new RoomLog(folder.getRoot().toPath(), 1024);
+        for (int i = 1; i <= 100; i++) {
+            log.append("Message " + i);
+        }
+
+        //when
+        StepVerifier
+                .create(log.range(1, 100).map(ChatFrame::seq), 2)
+
+                //then
+                .expectNext(1L, 2L)
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenRequest(1)
+                .expectNext(3L)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    public void shouldFindFirstMessageAfterGivenTime() throws InterruptedException {
+        //given
+        RoomLog log = new RoomLog(folder.getRoot().toPath(), 1024);
+        for (int i = 1; i <= 50; i++) {
+            log.append("Before " + i);
+        }
+        Thread.sleep(10);
+        Instant between = Instant.now();
+        Thread.sleep(10);
+        for (int i = 1; i <= 50; i++) {
+            log.append("After " + i);
+        }
+
+        //when
+        long seq = log.seqAt(between);
+
+        //then
+        assertThat(seq).isEqualTo(51);
+        assertThat(log.seqAt(Instant.EPOCH)).isEqualTo(1);
+        assertThat(log.seqAt(Instant.now().plusSeconds(1))).isEqualTo(101);
+    }
+
+    @Test
+    public void shouldRecoverAfterRestart() {
+        //given
+        RoomLog before = new RoomLog(folder.getRoot().toPath(), 1024);
+        for (int i = 1; i <= 100; i++) {
+            before.append("Message " + i);
+        }
+
+        //when
+        RoomLog after = new RoomLog(folder.getRoot().toPath(), 1024);
+        after.append("Message 101");
+
+        //then
+        assertThat(after.lastSeq()).isEqualTo(101);
+        assertThat(after.range(1, 101).map(ChatFrame::text).collectList().block())
+                .hasSize(101)
+                .startsWith("Message 1", "Message 2")
+                .endsWith("Message 100", "Message 101");
+    }
+
+    @Test
+    public void shouldReplayFramesStraightFromMappedSegment() {
+        //given
+        RoomLog log = new RoomLog(folder.getRoot().toPath(), 1024);
+        log.append("Hello");
+
+        //when
+        ChatFrame replayed = log.range(1, 1).blockFirst();
+
+        //then
+        assertThat(replayed.payload().isDirect()).isTrue();
+        assertThat(replayed.payload().isReadOnly()).isTrue();
+        assertThat(replayed.seq()).isEqualTo(1);
+        assertThat(replayed.text()).isEqualTo("Hello");
+    }
+
+    @Test
+    public void shouldStoreMessageLargerThanSegment() {
+        //given
+        RoomLog log = new RoomLog(folder.getRoot().toPath(), 1024);
+        String large = "x".repeat(4096);
+
+        //when
+        log.append("Small");
+        log.append(large);
+        log.append("Small again");
+
+        //then
+        assertThat(log.range(1, 3).map(ChatFrame::text).collectList().block()).containsExactly("Small", large, "Small again");
+        assertThat(folder.getRoot().listFiles((dir, name) -> name.endsWith(".log"))).hasSize(3);
+    }
+
+    @Test
+    public void shouldPrepareNextSegmentOnlyWhenActiveIsNearlyFull() {
+        //given
+        RoomLog log = new RoomLog(folder.getRoot().toPath(), 1024);
+
+        //when
+        log.append("Message");
+
+        //then
+        assertThat(folder.getRoot().listFiles((dir, name) -> name.endsWith(".next"))).isEmpty();
+        assertThat(folder.getRoot().listFiles((dir, name) -> name.endsWith(".log"))).hasSize(1);
+    }
+
+    @Test
+    public void shouldKeepOnlyNewestSegments() {
+        //given
+        RoomLog log = new RoomLog(folder.getRoot().toPath(), 1024, Duration.ofDays(7), 3);
+
+        //when
+        for (int i = 1; i <= 1000; i++) {
+            log.append("Message " + i);
+        }
+
+        //then
+        await().atMost(10, SECONDS).until(() -> folder.getRoot().listFiles((dir, name) -> name.endsWith(".log")).length == 3);
+        List<String> replayed = log.range(1, 1000).map(ChatFrame::text).collectList().block();
+        assertThat(replayed)
+                .hasSizeLessThan(1000)
+                .endsWith("Message 999", "Message 1000");
+    }
+
+    @Test
+    public void shouldDeleteExpiredHistoryOfLogNotOpen() throws IOException {
+        //given
+        Path dir = folder.getRoot().toPath().resolve("room");
+        RoomLog log = new RoomLog(dir, 1024);
+        for (int i = 1; i <= 100; i++) {
+            log.append("Message " + i);
+        }
+        log.close();
+
+        //when
+        RoomLog.expire(dir, Duration.ZERO, 16);
+
+        //then
+        assertThat(dir).doesNotExist();
+    }
+
+    @Test
+    public void shouldKeepRecentHistoryOfLogNotOpen() throws IOException {
+        //given
+        Path dir = folder.getRoot().toPath().resolve("room");
+        RoomLog log = new RoomLog(dir, 1024);
+        for (int i = 1; i <= 100; i++) {
+            log.append("Message " + i);
+        }
+        log.close();
+
+        //when
+        RoomLog.expire(dir, Duration.ofDays(1), 2);
+
+        //then
+        assertThat(dir.toFile().list()).hasSize(2).allMatch(name -> name.endsWith(".log"));
+        assertThat(new RoomLog(dir, 1024).range(1, 100).map(ChatFrame::text).collectList().block()).endsWith("Message 100");
+    }
+
+}
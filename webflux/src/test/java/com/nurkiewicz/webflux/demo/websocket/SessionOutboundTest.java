@@ -0,0 +1,139 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SessionOutboundTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Sinks.Many<Integer> source = Sinks.many().multicast().directBestEffort();
+
+    @Test
+    public void shouldDropOldestMessagesOfSlowSession() {
+        //given
+        Flux<Integer> bounded = new SessionOutbound(meterRegistry, 3, SessionOutbound.Overflow.DROP_OLDEST)
+                .bound("chat", "s1", source.asFlux());
+
+        //when
+        StepVerifier
+                .create(bounded, 0)
+                .then(() -> emit(1, 2, 3, 4, 5))
+                .then(() -> assertThat(lag()).isEqualTo(3))
+                .thenRequest(3)
+
+                //then
+                .expectNext(3, 4, 5)
+                .then(() -> assertThat(lag()).isZero())
+                .thenCancel()
+                .verify();
+        assertThat(dropped(SessionOutbound.Overflow.DROP_OLDEST)).isEqualTo(2);
+        assertThat(meterRegistry.get("websocket.outbound.queued").summary().max()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldDropNewestMessagesOfSlowSession() {
+        //given
+        Flux<Integer> bounded = new SessionOutbound(meterRegistry, 3, SessionOutbound.Overflow.DROP_NEWEST)
+                .bound("chat", "s1", source.asFlux());
+
+        //when
+        StepVerifier
+                .create(bounded, 0)
+                .then(() -> emit(1, 2, 3, 4, 5))
+                .thenRequest(3)
+
+                //then
+                .expectNext(1, 2, 3)
+                .thenCancel()
+                .verify();
+        assertThat(dropped(SessionOutbound.Overflow.DROP_NEWEST)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldEvictSessionLaggingBehindTooMuch() {
+        //given
+        Flux<Integer> bounded = new SessionOutbound(meterRegistry, 3, SessionOutbound.Overflow.DISCONNECT)
+                .bound("chat", "s1", source.asFlux());
+
+        //when
+        StepVerifier
+                .create(bounded, 0)
+                .then(() -> emit(1, 2, 3, 4))
+
+                //then
+                .expectError(SessionOutbound.SlowConsumerException.class)
+                .verify();
+        assertThat(meterRegistry.get("websocket.outbound.evictions").counter().count()).isEqualTo(1);
+        assertThat(lag()).isZero();
+    }
+
+    @Test
+    public void shouldNotAffectOtherSessionsOfTheSameSource() {
+        //given
+        SessionOutbound outbound = new SessionOutbound(meterRegistry, 3, SessionOutbound.Overflow.DISCONNECT);
+        AtomicReference<Throwable> slowError = new AtomicReference<>();
+        List<Integer> fast = new ArrayList<>();
+        outbound.bound("chat", "slow", source.asFlux()).subscribe(new BaseSubscriber<Integer>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                //never requests anything
+            }
+
+            @Override
+            protected void hookOnError(Throwable throwable) {
+                slowError.set(throwable);
+            }
+        });
+        outbound.bound("chat", "fast", source.asFlux()).subscribe(fast::add);
+
+        //when
+        emit(1, 2, 3, 4, 5);
+
+        //then
+        assertThat(slowError.get()).isInstanceOf(SessionOutbound.SlowConsumerException.class);
+        assertThat(fast).containsExactly(1, 2, 3, 4, 5);
+        assertThat(lag()).isZero();
+    }
+
+    @Test
+    public void shouldNotRegisterMetersPerSession() {
+        //given
+        SessionOutbound outbound = new SessionOutbound(meterRegistry, 3, SessionOutbound.Overflow.DROP_OLDEST);
+
+        //when
+        for (int i = 0; i < 100; i++) {
+            outbound.bound("chat", "s" + i, source.asFlux()).subscribe();
+        }
+        emit(1);
+
+        //then
+        assertThat(meterRegistry.find("websocket.outbound.lag").gauges()).hasSize(1);
+        assertThat(meterRegistry.get("websocket.outbound.queued").summary().count()).isEqualTo(100);
+    }
+
+    private void emit(Integer... messages) {
+        for (Integer message : messages) {
+            assertThat(source.tryEmitNext(message)).isEqualTo(Sinks.EmitResult.OK);
+        }
+    }
+
+    private double lag() {
+        return meterRegistry.get("websocket.outbound.lag").tag("endpoint", "chat").gauge().value();
+    }
+
+    private double dropped(SessionOutbound.Overflow overflow) {
+        return meterRegistry.get("websocket.outbound.dropped").tag("overflow", overflow.name()).counter().count();
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimeHandlerTest {
+
+    private static final Logger log = LoggerFactory.getLogger(TimeHandlerTest.class);
+
+    private static final Duration PERIOD = Duration.ofMillis(500);
+    private static final int TICKS = 20;
+
+    private final VirtualTimeScheduler virtualTime = VirtualTimeScheduler.create();
+    private final DataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+    private final Disposable.Composite sessions = Disposables.composite();
+    private final AtomicLong delivered = new AtomicLong();
+
+    @After
+    public void disconnect() {
+        sessions.dispose();
+        virtualTime.dispose();
+    }
+
+    @Test
+    public void shouldShareOneTimerBetweenAllSessions() {
+        //given
+        TimeHandler handler = new TimeHandler(new SessionOutbound(new SimpleMeterRegistry(), 256, SessionOutbound.Overflow.DROP_OLDEST), PERIOD, virtualTime);
+        StringBuilder first = new StringBuilder();
+        StringBuilder second = new StringBuilder();
+        sessions.add(handler.ticks().take(1).subscribe(tick -> first.append(UTF_8.decode(tick.duplicate()))));
+        sessions.add(handler.ticks().take(1).subscribe(tick -> second.append(UTF_8.decode(tick.duplicate()))));
+
+        //when
+        virtualTime.advanceTimeBy(PERIOD);
+
+        //then
+        assertThat(first.toString()).isEqualTo("0\t" + Instant.ofEpochMilli(PERIOD.toMillis()));
+        assertThat(second.toString()).isEqualTo(first.toString());
+    }
+
+    @Test
+    public void shouldCostLessPerTickThanTimerPerSession() {
+        for (int count : new int[]{10_000, 50_000}) {
+            //when
+            Cost shared = measure(count, sharedTicker());
+            Cost perSession = measure(count, timerPerSession());
+
+            //then
+            log.info("{} sessions x {} ticks: shared ticker {}ms CPU {}MiB allocated, timer per session {}ms CPU {}MiB allocated",
+                    count, TICKS,
+                    shared.cpuNanos / 1_000_000, shared.allocatedBytes >> 20,
+                    perSession.cpuNanos / 1_000_000, perSession.allocatedBytes >> 20);
+            assertThat(shared.allocatedBytes).isLessThan(perSession.allocatedBytes / 2);
+        }
+    }
+
+    private Flux<WebSocketMessage> sharedTicker() {
+        TimeHandler handler = new TimeHandler(null, PERIOD, virtualTime);
+        return handler.ticks().map(tick -> TimeHandler.toMessage(bufferFactory, tick));
+    }
+
+    /**
+     * What every session used to do on its own.
+     */
+    private Flux<WebSocketMessage> timerPerSession() {
+        return Flux.defer(() -> Flux
+                .interval(PERIOD, virtualTime)
+                .timestamp(virtualTime)
+                .map(t -> t.getT2() + "\t" + Instant.ofEpochMilli(t.getT1()))
+                .map(text -> new WebSocketMessage(WebSocketMessage.Type.TEXT, bufferFactory.wrap(text.getBytes(UTF_8)))));
+    }
+
+    /**
+     * Subscribes all sessions, then measures CPU and allocation of the calling thread, running all ticks in virtual time.
+     */
+    private Cost measure(int count, Flux<WebSocketMessage> ticks) {
+        Disposable.Composite subscriptions = Disposables.composite();
+        delivered.set(0);
+        for (int i = 0; i < count; i++) {
+            subscriptions.add(ticks.subscribe(message -> delivered.incrementAndGet()));
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long cpuBefore = threads.getCurrentThreadCpuTime();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        virtualTime.advanceTimeBy(PERIOD.multipliedBy(TICKS));
+        Cost cost = new Cost(threads.getCurrentThreadCpuTime() - cpuBefore, threads.getThreadAllocatedBytes(thread) - allocatedBefore);
+        subscriptions.dispose();
+        assertThat(delivered).hasValue((long) count * TICKS);
+        return cost;
+    }
+
+    private static class Cost {
+
+        final long cpuNanos;
+        final long allocatedBytes;
+
+        Cost(long cpuNanos, long allocatedBytes) {
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+}
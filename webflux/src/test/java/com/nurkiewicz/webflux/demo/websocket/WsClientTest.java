@@ -0,0 +1,71 @@
+package com.nurkiewicz.webflux.demo.websocket;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class WsClientTest {
+
+    @Test
+    public void shouldParseOptions() {
+        //when
+        WsClient.Options options = WsClient.Options.parse("--endpoint=chat", "--sessions=5000", "--ramp-up=30s", "--rooms=10");
+
+        //then
+        assertThat(options.endpoint).isEqualTo(WsClient.Endpoint.CHAT);
+        assertThat(options.sessions).isEqualTo(5000);
+        assertThat(options.rampUp).isEqualTo(Duration.ofSeconds(30));
+        assertThat(options.duration).isEqualTo(Duration.ofSeconds(60));
+        assertThat(options.uri(13)).isEqualTo(URI.create("ws://localhost:8080/chat?room=load-3&last=0"));
+    }
+
+    @Test
+    public void shouldRejectUnknownOption() {
+        assertThatThrownBy(() -> WsClient.Options.parse("--sesions=10"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("sesions");
+    }
+
+    @Test
+    public void shouldRejectValuesOutOfRange() {
+        assertThatThrownBy(() -> WsClient.Options.parse("--rate=0"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("--rate");
+        assertThatThrownBy(() -> WsClient.Options.parse("--sessions=-1"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("--sessions");
+        assertThatThrownBy(() -> WsClient.Options.parse("--duration=0s"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("--duration");
+        assertThatThrownBy(() -> WsClient.Options.parse("--rooms=many"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("--rooms");
+        assertThatThrownBy(() -> WsClient.Options.parse("--endpoint=ping"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("--endpoint");
+    }
+
+    @Test
+    public void shouldMeasureLatencyFromPayload() {
+        //given
+        long sent = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(20);
+        Instant tick = Instant.now().minusMillis(20);
+
+        //when
+        long echo = WsClient.Endpoint.ECHO.latencyNanos(sent + "\tXXX");
+        long chat = WsClient.Endpoint.CHAT.latencyNanos("42\t" + sent + "\txxx");
+        long time = WsClient.Endpoint.TIME.latencyNanos("7\t" + tick);
+
+        //then
+        assertThat(echo).isBetween(TimeUnit.MILLISECONDS.toNanos(20), TimeUnit.SECONDS.toNanos(1));
+        assertThat(chat).isBetween(TimeUnit.MILLISECONDS.toNanos(20), TimeUnit.SECONDS.toNanos(1));
+        assertThat(time).isBetween(TimeUnit.MILLISECONDS.toNanos(20), TimeUnit.SECONDS.toNanos(1));
+    }
+
+}